@@ -0,0 +1,38 @@
+package benchmark;
+
+import ai_csp.Agent;
+import main.GameModel;
+import main.RandomGenerator;
+import main.Simulator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Full seeded games of the agent, played headless through Simulator.play. A batch is played per
+// operation, a single game too often ends on the first move.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AgentGameBenchmark {
+
+    private static final int GAMES = 10;
+
+    @Param({"SMALL", "MEDIUM", "LARGE", "HUGE"})
+    public BoardState.Preset preset;
+
+    @Param({"42"})
+    public long seed;
+
+    @Benchmark
+    public Simulator.Stats games() {
+        Simulator.Stats stats = new Simulator.Stats();
+        for (long game = this.seed; game < this.seed + GAMES; game++) {
+            GameModel model = new GameModel(new RandomGenerator(game).create(this.preset.width, this.preset.height, this.preset.bombs, false));
+            Simulator.play(new Agent(this.preset.width, this.preset.height, this.preset.bombs, game), model, stats);
+        }
+        return stats;
+    }
+}
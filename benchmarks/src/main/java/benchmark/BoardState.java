@@ -0,0 +1,116 @@
+package benchmark;
+
+import ai_csp.ContextBoard;
+import ai_csp.Location;
+import ai_csp.LocationGrid;
+import main.Board;
+import main.RandomGenerator;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+/*
+ * Seeded, reproducible board states for the benchmarks. A state is an actual board plus the
+ * order in which safe squares were revealed to a ContextBoard. The revealed area is grown
+ * from a single square, so the frontier looks like the one of a game in progress.
+ */
+public class BoardState {
+
+    // Fraction of the safe squares revealed before the state is frozen.
+    private static final double REVEALED = 0.35;
+
+    // Board sizes: the three levels of Game.Size (as in Controller.newGame) and larger custom boards.
+    public enum Preset {
+        SMALL(8, 8, 10),
+        MEDIUM(12, 12, 30),
+        LARGE(16, 16, 60),
+        HUGE(32, 32, 160),
+        GIANT(64, 64, 640);
+
+        public final int width;
+        public final int height;
+        public final int bombs;
+
+        Preset(int width, int height, int bombs) {
+            this.width = width;
+            this.height = height;
+            this.bombs = bombs;
+        }
+    }
+
+    private final Board board;
+    private final List<Location> reveals;
+    private final LocationGrid grid;
+
+    private BoardState(Board board, List<Location> reveals) {
+        this.board = board;
+        this.reveals = reveals;
+        this.grid = new LocationGrid(board.getWidth(), board.getHeight());
+    }
+
+    // Creates the state for a preset, the same seed always gives the same state.
+    public static BoardState create(Preset preset, long seed) {
+        Board board = new RandomGenerator(seed).create(preset.width, preset.height, preset.bombs, false);
+        Random random = new Random(seed);
+        LocationGrid grid = new LocationGrid(board.getWidth(), board.getHeight());
+        ContextBoard context = new ContextBoard(grid);
+        BitSet moves = new BitSet();
+        BitSet bombs = new BitSet();
+
+        int target = (int) (REVEALED * (board.getWidth() * board.getHeight() - board.getBombCount()));
+        List<Location> reveals = new ArrayList<>();
+        List<Location> candidates = new ArrayList<>();
+        Location start;
+        do {
+            start = grid.getVariable(random.nextInt(board.getWidth()), random.nextInt(board.getHeight()));
+        } while (board.containsBomb(start.getX(), start.getY()));
+        candidates.add(start);
+
+        while (reveals.size() < target && !candidates.isEmpty()) {
+            // Swap-remove a random candidate next to the revealed area
+            int index = random.nextInt(candidates.size());
+            Location next = candidates.get(index);
+            candidates.set(index, candidates.get(candidates.size() - 1));
+            candidates.remove(candidates.size() - 1);
+            int id = grid.getId(next.getX(), next.getY());
+            if (context.getCell(id) != ContextBoard.UNKNOWN) continue;
+
+            reveals.add(next);
+            context.setNeighbour(id, board.neighbourBombsCount(next.getX(), next.getY()), moves, bombs);
+            for (int k = grid.neighbourStart(id); k < grid.neighbourEnd(id); k++) {
+                Location neighbour = grid.getVariable(grid.neighbour(k));
+                if (!board.containsBomb(neighbour.getX(), neighbour.getY())
+                        && context.getCell(grid.neighbour(k)) == ContextBoard.UNKNOWN) {
+                    candidates.add(neighbour);
+                }
+            }
+        }
+        return new BoardState(board, reveals);
+    }
+
+    public Board getBoard() {
+        return this.board;
+    }
+
+    public LocationGrid getGrid() {
+        return this.grid;
+    }
+
+    // Builds a new ContextBoard by revealing all squares of the state in order.
+    public ContextBoard replay() {
+        ContextBoard context = new ContextBoard(this.grid);
+        BitSet moves = new BitSet();
+        BitSet bombs = new BitSet();
+        for (Location position : this.reveals) {
+            context.setNeighbour(
+                    this.grid.getId(position.getX(), position.getY()),
+                    this.board.neighbourBombsCount(position.getX(), position.getY()),
+                    moves,
+                    bombs
+            );
+        }
+        return context;
+    }
+}
@@ -0,0 +1,35 @@
+package benchmark;
+
+import ai_csp.ConstraintSets;
+import ai_csp.ContextBoard;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Building the independent constraint sets of a frontier, done on every search() and guess().
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConstraintSetsBenchmark {
+
+    @Param({"SMALL", "MEDIUM", "LARGE", "HUGE", "GIANT"})
+    public BoardState.Preset preset;
+
+    @Param({"42"})
+    public long seed;
+
+    private ContextBoard context;
+
+    @Setup
+    public void setup() {
+        this.context = BoardState.create(this.preset, this.seed).replay();
+    }
+
+    @Benchmark
+    public ConstraintSets build() {
+        return new ConstraintSets(this.context);
+    }
+}
@@ -0,0 +1,34 @@
+package benchmark;
+
+import ai_csp.ContextBoard;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Knowledge updates: every reveal of a state replayed through ContextBoard.setNeighbour.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContextBoardBenchmark {
+
+    @Param({"SMALL", "MEDIUM", "LARGE", "HUGE", "GIANT"})
+    public BoardState.Preset preset;
+
+    @Param({"42"})
+    public long seed;
+
+    private BoardState state;
+
+    @Setup
+    public void setup() {
+        this.state = BoardState.create(this.preset, this.seed);
+    }
+
+    @Benchmark
+    public ContextBoard setNeighbour() {
+        return this.state.replay();
+    }
+}
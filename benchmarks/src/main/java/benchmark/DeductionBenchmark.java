@@ -0,0 +1,56 @@
+package benchmark;
+
+import ai_csp.BitmaskSolver;
+import ai_csp.CSPModel;
+import ai_csp.ConstraintDetails;
+import ai_csp.ConstraintSets;
+import org.chocosolver.solver.exception.ContradictionException;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Forced cell deduction for every set: Choco hasNoBombs/hasBomb per variable against BitmaskSolver.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeductionBenchmark {
+
+    @Param({"SMALL", "MEDIUM", "LARGE", "HUGE", "GIANT"})
+    public BoardState.Preset preset;
+
+    @Param({"42"})
+    public long seed;
+
+    private List<Map.Entry<Set<ConstraintDetails>, int[]>> sets;
+
+    @Setup
+    public void setup() {
+        this.sets = new ArrayList<>(new ConstraintSets(BoardState.create(this.preset, this.seed).replay()).getSets().entrySet());
+    }
+
+    @Benchmark
+    public void cspModel(Blackhole blackhole) throws ContradictionException {
+        for (Map.Entry<Set<ConstraintDetails>, int[]> entry : this.sets) {
+            CSPModel model = new CSPModel(entry.getKey(), entry.getValue());
+            for (int position : entry.getValue()) {
+                blackhole.consume(model.hasNoBombs(position));
+                blackhole.consume(model.hasBomb(position));
+            }
+        }
+    }
+
+    @Benchmark
+    public void bitmask(Blackhole blackhole) {
+        for (Map.Entry<Set<ConstraintDetails>, int[]> entry : this.sets) {
+            blackhole.consume(new BitmaskSolver(entry.getKey(), entry.getValue()).deduce());
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package benchmark;
+
+import ai_csp.ConstraintDetails;
+import ai_csp.ConstraintSets;
+import ai_csp.Probability;
+import org.chocosolver.solver.exception.ContradictionException;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Probability enumeration as in Agent.guess(). Enumeration is exponential in the size of a set,
+ * so sets with more than MAX_VARIABLES variables are left out to keep an iteration bounded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProbabilityBenchmark {
+
+    private static final int MAX_VARIABLES = 24;
+
+    @Param({"SMALL", "MEDIUM", "LARGE", "HUGE", "GIANT"})
+    public BoardState.Preset preset;
+
+    @Param({"42"})
+    public long seed;
+
+    private List<Map.Entry<Set<ConstraintDetails>, int[]>> sets;
+
+    @Setup
+    public void setup() {
+        this.sets = new ArrayList<>();
+        for (Map.Entry<Set<ConstraintDetails>, int[]> entry : new ConstraintSets(BoardState.create(this.preset, this.seed).replay()).getSets().entrySet()) {
+            if (entry.getValue().length <= MAX_VARIABLES) this.sets.add(entry);
+        }
+    }
+
+    @Benchmark
+    public Map<Integer, Double> probabilities() throws ContradictionException {
+        Map<Integer, Double> probabilities = new HashMap<>();
+        for (Map.Entry<Set<ConstraintDetails>, int[]> entry : this.sets) {
+            new Probability(entry.getKey(), entry.getValue()).getProbabilities(probabilities);
+        }
+        return probabilities;
+    }
+}
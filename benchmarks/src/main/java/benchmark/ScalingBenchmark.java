@@ -0,0 +1,183 @@
+package benchmark;
+
+import ai_csp.Agent;
+import ai_csp.Location;
+import main.Game;
+import main.GameModel;
+import main.RandomGenerator;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/*
+ * Macro benchmark of how the agent scales with the board. Plays seeded games for every combination
+ * of width, height and mine density, one game at a time so that move latencies aren't disturbed by
+ * other games. Every game has its own empty ComponentCache, so the latencies are those of a fresh
+ * board and don't depend on the number of games. One CSV row is written per combination:
+ *  - move latency p50/p99/max, timed like Simulator.play (nextMove and sendBackResult);
+ *  - time of the agent in each Agent.Phase, summed over the games;
+ *  - peak heap, the sum of the peaks of the heap pools, which is an upper bound;
+ *  - moves that ran out of the move budget, if there is one (budget in ms, 0 for none).
+ * Rows are also printed as they are done. Unlike the JMH benchmarks this is a plain program:
+ *
+ *   java -cp target/benchmarks.jar benchmark.ScalingBenchmark widths=16,32,64 heights=16,32,64
+ *        densities=0.12,0.16,0.20 games=10 seed=42 warmup=20 budget=0 out=scaling.csv
+ */
+public class ScalingBenchmark {
+
+    private static final String HEADER = "width,height,density,bombs,games,won_pct,moves,mean_us,p50_us,p99_us,max_us,"
+            + "search_ms,probability_ms,end_game_ms,guess_ms,peak_heap_mb,degraded_moves";
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>(Map.of(
+                "widths", "16,32,64",
+                "heights", "16,32,64",
+                "densities", "0.12,0.16,0.20",
+                "games", "10",
+                "seed", "42",
+                "warmup", "20",
+                "budget", "0",
+                "out", "scaling.csv"
+        ));
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if (split < 0 || !options.containsKey(arg.substring(0, split))) {
+                System.out.println("Unknown option " + arg + ", options are " + options.keySet() + " as key=value");
+                return;
+            }
+            options.put(arg.substring(0, split), arg.substring(split + 1));
+        }
+        int games = Integer.parseInt(options.get("games"));
+        long seed = Long.parseLong(options.get("seed"));
+        long budget = Long.parseLong(options.get("budget"));
+
+        // JIT warmup on a small board, not recorded
+        run(16, 16, 0.16, Integer.parseInt(options.get("warmup")), seed, budget);
+
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Path.of(options.get("out"))))) {
+            out.println(HEADER);
+            System.out.println(HEADER);
+            for (int width : ints(options.get("widths"))) {
+                for (int height : ints(options.get("heights"))) {
+                    for (double density : doubles(options.get("densities"))) {
+                        String row = run(width, height, density, games, seed, budget).toCsv();
+                        out.println(row);
+                        out.flush();
+                        System.out.println(row);
+                    }
+                }
+            }
+        }
+    }
+
+    // Plays the games of one combination, game i is seeded with seed + i.
+    private static Result run(int width, int height, double density, int games, long seed, long budget) {
+        int bombs = (int) Math.min(width * height - 1, Math.max(1, Math.round(density * width * height)));
+        Result result = new Result(width, height, density, bombs);
+        List<MemoryPoolMXBean> heap = resetHeapPeaks();
+
+        for (long game = seed; game < seed + games; game++) {
+            GameModel model = new GameModel(new RandomGenerator(game).create(width, height, bombs, false));
+            Agent agent = new Agent(width, height, bombs, game);
+            agent.setMoveBudget(budget);
+            play(agent, model, result);
+            result.degradedMoves += agent.getDegradedMoves();
+            for (Agent.Phase phase : Agent.Phase.values()) result.phaseNanos[phase.ordinal()] += agent.getPhaseNanos(phase);
+        }
+
+        for (MemoryPoolMXBean pool : heap) result.peakHeap += pool.getPeakUsage().getUsed();
+        return result;
+    }
+
+    // Game loop of Simulator.play, every move timed on its own.
+    private static void play(Agent agent, GameModel game, Result result) {
+        while (!game.isOver()) {
+            // The agent expects all found bombs to be flagged before its next move.
+            while (agent.markBomb() != null) ;
+
+            long start = System.nanoTime();
+            Location pos = agent.nextMove();
+            agent.sendBackResult(pos, game.reveal(pos.getX(), pos.getY()));
+            result.recordMove(System.nanoTime() - start);
+        }
+        result.games++;
+        if (game.getState() == Game.GameState.WON) result.wins++;
+    }
+
+    // Collects garbage and restarts the peak usage of every heap pool.
+    private static List<MemoryPoolMXBean> resetHeapPeaks() {
+        System.gc();
+        List<MemoryPoolMXBean> heap = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP) continue;
+            pool.resetPeakUsage();
+            heap.add(pool);
+        }
+        return heap;
+    }
+
+    private static int[] ints(String list) {
+        return Arrays.stream(list.split(",")).mapToInt(value -> Integer.parseInt(value.trim())).toArray();
+    }
+
+    private static double[] doubles(String list) {
+        return Arrays.stream(list.split(",")).mapToDouble(value -> Double.parseDouble(value.trim())).toArray();
+    }
+
+    // Measurements of one combination.
+    private static class Result {
+        private final int width;
+        private final int height;
+        private final double density;
+        private final int bombs;
+        private long[] latencies = new long[1024];
+        private int moves;
+        private int games;
+        private int wins;
+        private final long[] phaseNanos = new long[Agent.Phase.values().length];
+        private long peakHeap;
+        private long degradedMoves;
+
+        private Result(int width, int height, double density, int bombs) {
+            this.width = width;
+            this.height = height;
+            this.density = density;
+            this.bombs = bombs;
+        }
+
+        private void recordMove(long nanos) {
+            if (this.moves == this.latencies.length) this.latencies = Arrays.copyOf(this.latencies, 2 * this.moves);
+            this.latencies[this.moves++] = nanos;
+        }
+
+        // Nearest rank percentile in microseconds, the latencies have to be sorted
+        private double percentile(double p) {
+            if (this.moves == 0) return 0.0;
+            int rank = (int) Math.ceil(p / 100.0 * this.moves);
+            return this.latencies[Math.max(0, rank - 1)] / 1e3;
+        }
+
+        private String toCsv() {
+            Arrays.sort(this.latencies, 0, this.moves);
+            long total = 0;
+            for (int i = 0; i < this.moves; i++) total += this.latencies[i];
+            return String.format(Locale.ROOT, "%d,%d,%.4f,%d,%d,%.2f,%d,%.1f,%.1f,%.1f,%.1f,%.2f,%.2f,%.2f,%.2f,%.1f,%d",
+                    this.width, this.height, this.density, this.bombs, this.games,
+                    this.games == 0 ? 0.0 : 100.0 * this.wins / this.games, this.moves,
+                    this.moves == 0 ? 0.0 : total / 1e3 / this.moves,
+                    percentile(50), percentile(99), percentile(100),
+                    this.phaseNanos[Agent.Phase.SEARCH.ordinal()] / 1e6,
+                    this.phaseNanos[Agent.Phase.PROBABILITY.ordinal()] / 1e6,
+                    this.phaseNanos[Agent.Phase.END_GAME.ordinal()] / 1e6,
+                    this.phaseNanos[Agent.Phase.GUESS.ordinal()] / 1e6,
+                    this.peakHeap / (1024.0 * 1024.0), this.degradedMoves
+            );
+        }
+    }
+}
@@ -4,56 +4,86 @@ package ai_csp;
 import org.chocosolver.solver.exception.ContradictionException;
 
 import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 // Minesweeper player agent
 public class Agent {
 
     private static final int END_GAME_MARK = 15;
+    private static final int PARALLEL_MARK = 32;    // constraints in changed components before they are solved in parallel
 
-    // Temp Storage
-    private Set<Location> markedBombs;
-    private Set<Location> unmarkedBombs;
-    private Set<Location> history;
-    private Set<Location> pendingMoves;
+    // Parts of a move that isn't pending, timed separately
+    public enum Phase {
+        SEARCH, PROBABILITY, END_GAME, GUESS
+    }
+
+    // Temp Storage, sets of cell ids. Locations are only used towards the controller.
+    private BitSet markedBombs;
+    private BitSet unmarkedBombs;
+    private BitSet history;
+    private BitSet pendingMoves;
 
     private Random generator;
     private LocationGrid grid;
     private ContextBoard board;
+    private IncrementalModel model;
+    private ComponentCache cache;
+    private final Metrics metrics = Metrics.get();
 
     private int width;
     private int height;
     private int bombs;
-    private int initialBombCount;
     private int movesRemainingToWin;
     private boolean endgame;
+    private final long[] phaseNanos = new long[Phase.values().length];
+
+    // Time budget of a move, the solvers stop at the deadline and the move uses estimates
+    private long moveBudget;                        // nanoseconds, 0 for none
+    private Deadline deadline = Deadline.NONE;
+    private boolean degraded;                       // the current move used estimates
+    private int degradedMoves;
 
     // Initialization with a random first move.
     public Agent(int width, int height, int bombs) {
-        this.init(width, height, bombs);
+        this.init(width, height, bombs, new Random(), new ComponentCache());
+        this.firstMove();
+    }
+
+    // Initialization with a seeded generator, so that games can be reproduced.
+    public Agent(int width, int height, int bombs, long seed) {
+        this(width, height, bombs, seed, new ComponentCache());
+    }
+
+    // Same as above, with a cache of solved components that can be shared with other agents.
+    public Agent(int width, int height, int bombs, long seed, ComponentCache cache) {
+        this.init(width, height, bombs, new Random(seed), cache);
         this.firstMove();
     }
 
     // Initialize properties
-    private void init(int width, int height, int bombs) {
-        this.markedBombs = new HashSet<>();
-        this.unmarkedBombs = new HashSet<>();
-        this.history = new HashSet<>();
-        this.generator = new Random();
-        this.pendingMoves = new HashSet<>();
-        this.board = new ContextBoard(width, height);
+    private void init(int width, int height, int bombs, Random generator, ComponentCache cache) {
         this.grid = new LocationGrid(width, height);
+        this.markedBombs = new BitSet(this.grid.size());
+        this.unmarkedBombs = new BitSet(this.grid.size());
+        this.history = new BitSet(this.grid.size());
+        this.generator = generator;
+        this.pendingMoves = new BitSet(this.grid.size());
+        this.board = new ContextBoard(this.grid);
+        this.model = new IncrementalModel(this.board, bombs);
+        this.board.addListener(this.model);
+        this.cache = cache;
         this.width = width;
         this.height = height;
         this.bombs = bombs;
-        this.initialBombCount = bombs;
         this.endgame = false;
         this.movesRemainingToWin = this.width * this.height - this.bombs;
     }
 
     // Adds the first move to the pending moves with avoiding corners
     private void firstMove() {
-        this.pendingMoves.add(
-                this.grid.getVariable(
+        this.pendingMoves.set(
+                this.grid.getId(
                         1 + this.generator.nextInt(this.width - 2),
                         1 + this.generator.nextInt(this.height - 2)
                 )
@@ -61,37 +91,51 @@ public class Agent {
     }
 
     public Location nextMove() {
-        Location next = null;
+        long start = System.nanoTime();
+        Events.Move event = new Events.Move();
+        event.begin();
+        int next = -1;
+        boolean pending = true;
 
         // Are there any moves bending?
         while (!this.pendingMoves.isEmpty()) {
-            Location nextMove = nextPending();
+            int nextMove = nextPending();
 
 
-            if (!this.history.contains(nextMove)) {
+            if (!this.history.get(nextMove)) {
                 next = nextMove;
-                this.history.add(nextMove);
+                this.history.set(nextMove);
                 break;
             }
         }
         // If not, search for one
-        if (next == null) {
+        if (next < 0) {
+            pending = false;
+            this.deadline = Deadline.after(this.moveBudget);
+            this.degraded = false;
             findMove();
             next = nextPending();
-            this.history.add(next);
+            // findMove() guesses if nothing is forced, so only a board without unknown squares gets here
+            if (next < 0) throw new IllegalStateException("No move left, every square is known");
+            this.history.set(next);
+            if (this.degraded) {
+                this.degradedMoves++;
+                this.metrics.degradedMoves.increment();
+            }
         }
 
         this.movesRemainingToWin--;
-        return next;
+        Location location = this.grid.getVariable(next);
+        event.end(location, pending, this.degraded, this.pendingMoves);
+        this.metrics.moveLatency.observe((System.nanoTime() - start) / 1e9);
+        return location;
     }
 
     // Sending parameters back to the controller
     public void sendBackResult(Location position, int neighbour) {
         this.board.setNeighbour(
-                position.getX(),
-                position.getY(),
+                this.grid.getId(position.getX(), position.getY()),
                 neighbour,
-                this.grid,
                 this.pendingMoves,
                 this.unmarkedBombs
         );
@@ -99,143 +143,286 @@ public class Agent {
 
     // Non-pending search moves
     private void findMove() {
-        if (!search()) {
+        long start = System.nanoTime();
+        boolean found = search();
+        start = timePhase(Phase.SEARCH, start);
+        if (!found) {
             if (this.movesRemainingToWin <= Agent.END_GAME_MARK) {
                 this.endgame = true;
             }
+            GlobalProbability global = globalProbability();
+            start = timePhase(Phase.PROBABILITY, start);
             if (this.endgame) {
-                if (endGameSearch()) {
+                boolean safe = endGameSearch(global);
+                start = timePhase(Phase.END_GAME, start);
+                if (safe) {
                     return;
                 }
             }
-            guess();
+            guess(global);
+            timePhase(Phase.GUESS, start);
         }
     }
 
-    private boolean endGameSearch() {
-        boolean found = false;
-        Stack<Location> bombs = new Stack<>();
+    // Adds the time since start to the phase, returns the current time
+    private long timePhase(Phase phase, long start) {
+        long now = System.nanoTime();
+        this.phaseNanos[phase.ordinal()] += now - start;
+        return now;
+    }
 
-        FinalStageConstraint constraints = new FinalStageConstraint(this.board, this.initialBombCount, this.width, this.height, this.grid);
-        try {
-            CSPModel model = new CSPModel(constraints);
-            for (Location pos : constraints.getVariables()) {
-                if (model.hasBomb(pos)) bombs.add(pos);
-                else if (model.hasNoBombs(pos)) {
-                    found = true;
-                    this.pendingMoves.add(pos);
-                }
-            }
-        } catch (ContradictionException ex) {
-            System.out.println("Model contradicted");
+    // Total time spent in a phase by this agent, in nanoseconds
+    public long getPhaseNanos(Phase phase) {
+        return this.phaseNanos[phase.ordinal()];
+    }
+
+    /*
+     * Bounds the time of a move that isn't pending. Searches that don't finish in time only give
+     * the squares they proved so far, counts that don't finish are estimates from the solutions
+     * found so far, and the move is counted as degraded. 0 for no bound, the default.
+     */
+    public void setMoveBudget(long millis) {
+        this.moveBudget = Math.max(0, millis) * 1_000_000L;
+    }
+
+    // Number of moves that ran out of time and used estimates
+    public int getDegradedMoves() {
+        return this.degradedMoves;
+    }
+
+    /*
+     * Uses the number of bombs left: exact global probabilities of 0 or 100 percent
+     * are squares that are safe or bombs in every solution of the whole board.
+     * When some histograms are only estimates or a component contradicts, the forced squares
+     * come from the IncrementalModel instead. The board keeps it up to date after its first use.
+     */
+    private boolean endGameSearch(GlobalProbability global) {
+        Events.Phase event = new Events.Phase();
+        event.begin();
+        BitSet bombs = global.isExact() ? global.getBombs() : new BitSet(this.grid.size());
+        BitSet safe = global.isExact() ? global.getSafe() : new BitSet(this.grid.size());
+        if (!global.isExact()) modelSearch(safe, bombs);
+        for (int position = bombs.nextSetBit(0); position >= 0; position = bombs.nextSetBit(position + 1)) {
+            this.board.manualSetBombAt(position, this.pendingMoves, this.unmarkedBombs);
         }
+        this.metrics.endGameMoves.add(newMoves(safe));
+        this.pendingMoves.or(safe);
+        event.end(Phase.END_GAME, global.getComponents().size(), 0, safe.cardinality(), bombs.cardinality());
+        return !safe.isEmpty();
+    }
 
-        boolean searchAgain = !found && !bombs.isEmpty();
-        while (!bombs.isEmpty()) {
-            Location position = bombs.pop();
-            this.board.manualSetBombAt(position.getX(), position.getY(), this.grid, this.pendingMoves, this.unmarkedBombs);
+    // Squares forced in every solution of the whole board, asked to the long-lived model
+    private void modelSearch(BitSet safe, BitSet bombs) {
+        // The model is built on the first use and updated by the board afterwards
+        if (!this.model.isAttached()) this.model.attach();
+        this.model.setDeadline(this.deadline);
+        if (!this.model.isConsistent()) {
+            this.metrics.contradictions.increment();
+            return;
+        }
+        BitSet variables = this.model.getVariables();
+        variables.andNot(this.unmarkedBombs);
+        for (int position = variables.nextSetBit(0); position >= 0; position = variables.nextSetBit(position + 1)) {
+            if (this.model.hasBomb(position)) bombs.set(position);
+            else if (this.model.hasNoBombs(position)) safe.set(position);
         }
-        return searchAgain ? endGameSearch() : found;
+        if (this.deadline.isExpired()) this.degraded = true;
     }
 
-    // Returns true if a move was found
+    /*
+     * Returns true if a move was found.
+     * Components share no variables, so they are solved independently: on the common ForkJoin
+     * pool when there is enough work, else in this thread. Every deduction is its own buffer
+     * and they are only merged into the pending moves and bombs afterwards, in this thread.
+     */
     private boolean search() {
+        Events.Phase event = new Events.Phase();
+        event.begin();
+        // Components that didn't change since they were last searched can't give anything new
+        List<ConstraintComponents.Component> dirty = new ArrayList<>();
+        int constraints = 0;
+        for (ConstraintComponents.Component component : this.board.getComponents()) {
+            if (!component.isDirty()) continue;
+            dirty.add(component);
+            constraints += component.size();
+            this.metrics.componentSize.observe(component.getVariables().length);
+        }
+        Stream<ConstraintComponents.Component> stream = dirty.stream();
+        if (dirty.size() > 1 && constraints >= Agent.PARALLEL_MARK) stream = stream.parallel();
+        List<BitmaskSolver.Deduction> deductions = stream
+                .map(component -> this.cache.deduce(component.getConstraints(), component.getVariables(), this.deadline))
+                .collect(Collectors.toList());
+
         boolean found = false;
+        int safe = 0;
         // Any found bombs are set after the search
-        Stack<Location> bombs = new Stack<>();
-        ConstraintSets cSets = new ConstraintSets(this.board);
-        for (Map.Entry<Set<ConstraintDetails>, Set<Location>> entry : cSets.getSets().entrySet()) {
-            found = searchSet(entry, bombs);
+        BitSet bombs = new BitSet();
+        for (int i = 0; i < dirty.size(); i++) {
+            found |= mergeDeduction(deductions.get(i), bombs);
+            safe += deductions.get(i).getSafe().cardinality();
+            // A search stopped by the deadline is done again on the next move
+            if (deductions.get(i).isComplete()) dirty.get(i).clean();
+            else this.degraded = true;
         }
+        event.end(Phase.SEARCH, dirty.size(), constraints, safe, bombs.cardinality());
         boolean searchAgain = !found && !bombs.isEmpty();
-        while (!bombs.isEmpty()) {
-            Location position = bombs.pop();
-            this.board.manualSetBombAt(position.getX(), position.getY(), this.grid, this.pendingMoves, this.unmarkedBombs);
+        for (int position = bombs.nextSetBit(0); position >= 0; position = bombs.nextSetBit(position + 1)) {
+            this.board.manualSetBombAt(position, this.pendingMoves, this.unmarkedBombs);
         }
         // If only known bombs are found, we search again since some might result in a newly found 'known-no-bomb'
         return searchAgain ? search() : found;
     }
 
-    // Searches for guarantee set
-    private boolean searchSet(Map.Entry<Set<ConstraintDetails>, Set<Location>> entry, Stack<Location> bombs) {
-        boolean found = false;
-        try {
-            CSPModel model = new CSPModel(entry.getKey(), entry.getValue());
-            for (Location position : entry.getValue()) {
-                if (model.hasNoBombs(position)) {
-                    this.pendingMoves.add(position);
-                    found = true;
-                }
-                else if (model.hasBomb(position)) bombs.add(position);
+    // Adds the guaranteed moves of a component, returns true if there are safe ones
+    private boolean mergeDeduction(BitmaskSolver.Deduction deduction, BitSet bombs) {
+        if (!deduction.isConsistent()) {
+            this.metrics.contradictions.increment();
+            return false;
+        }
+        this.metrics.searchMoves.add(newMoves(deduction.getSafe()));
+        this.pendingMoves.or(deduction.getSafe());
+        bombs.or(deduction.getBombs());
+        return !deduction.getSafe().isEmpty();
+    }
+
+    // Number of safe squares that aren't pending yet
+    private int newMoves(BitSet safe) {
+        BitSet added = (BitSet) safe.clone();
+        added.andNot(this.pendingMoves);
+        return added.cardinality();
+    }
+
+    /*
+     * Exact bomb probabilities of all unknown squares, from the solution counts of every constraint set.
+     * Counts are kept on the components, so only components that changed are counted again. Those are
+     * counted in parallel like in search(), each into its own result, and stored afterwards.
+     * Large components are sampled, see ProbabilityEstimator. Counts stopped by the deadline are only
+     * used for this move. A component without any solution found in time is taken as unconstrained squares.
+     */
+    private GlobalProbability globalProbability() {
+        Events.Phase event = new Events.Phase();
+        event.begin();
+        List<ConstraintComponents.Component> uncounted = new ArrayList<>();
+        int constraints = 0;
+        for (ConstraintComponents.Component component : this.board.getComponents()) {
+            if (component.getCounts() == null) {
+                uncounted.add(component);
+                constraints += component.size();
             }
+        }
+        Stream<ConstraintComponents.Component> stream = uncounted.stream();
+        if (uncounted.size() > 1 && constraints >= Agent.PARALLEL_MARK) stream = stream.parallel();
+        List<SolutionCounts> results = stream.map(this::countComponent).collect(Collectors.toList());
+        Map<ConstraintComponents.Component, SolutionCounts> estimates = new HashMap<>();
+        for (int i = 0; i < uncounted.size(); i++) {
+            SolutionCounts result = results.get(i);
+            if (result == null || result.isComplete()) uncounted.get(i).setCounts(result);
+            else estimates.put(uncounted.get(i), result);
+        }
+
+        BitSet variables = new BitSet(this.grid.size());                        // Collects all variables in all sets
+        List<SolutionCounts> counts = new ArrayList<>();
+        boolean exact = estimates.isEmpty();                                    // false if a component is estimated or contradicts
+        for (ConstraintComponents.Component component : this.board.getComponents()) {
+            SolutionCounts result = component.getCounts() != null ? component.getCounts() : estimates.get(component);
+            if (result != null && !result.isExact() && result.getTotal().signum() == 0) continue;
+            for (int variable : component.getVariables()) variables.set(variable);
+            if (result != null) counts.add(result);
+            else exact = false;
+        }
+        if (!estimates.isEmpty()) this.degraded = true;
+        // Bombs not found yet are either in the sets or among the unknown non variables
+        GlobalProbability global = new GlobalProbability(
+                counts, getUnknownNonVariables(variables), this.bombs - this.unmarkedBombsCounter(), exact
+        );
+        event.end(Phase.PROBABILITY, uncounted.size(), constraints, 0, 0);
+        return global;
+    }
+
+    // Solution counts of a component, null if its constraints contradict each other
+    private SolutionCounts countComponent(ConstraintComponents.Component component) {
+        try {
+            return this.cache.count(component.getConstraints(), component.getVariables(), this.deadline);
         } catch (ContradictionException e) {
-            System.out.println("Contradiction in model!");
+            this.metrics.contradictions.increment();
+            return null;
         }
-        return found;
     }
 
     //Adds the most likely non-bomb to the pending moves.
-    private void guess() {
+    private void guess(GlobalProbability global) {
         if (!this.pendingMoves.isEmpty()) return;
-        Map<Location, Double> probabilities = new HashMap<>();                  // Probability map for variables
-        Set<Location> variables = new HashSet<>();                              // Collects all variables in all sets
-        ConstraintSets cSets = new ConstraintSets(this.board);            // Constraint sets
-        int bombsOutsideVariables = this.bombs - this.unmarkedBombsCounter();   // Bomb counter for squares outside variables
-
-        // Get probability for each set of variables
-        for (Map.Entry<Set<ConstraintDetails>, Set<Location>> entry : cSets.getSets().entrySet()) {
-            try {
-                Probability pModel = new Probability(entry.getKey(), entry.getValue(), variables);
-                // Subtract the minimum amount of bombs a solution can have from the bomb counter for non-variables
-                bombsOutsideVariables -= pModel.getProbabilities(probabilities);
-            } catch (ContradictionException e) {
-                System.out.println("Contradiction in model!");
+        Events.Phase event = new Events.Phase();
+        event.begin();
+
+        // The least likely bombs among the variables, ties kept by cell id, with the widest interval among them
+        double lowest = Double.MAX_VALUE;
+        double interval = 0.0;
+        BitSet lowProb = new BitSet(this.grid.size());
+        List<SolutionCounts> components = global.getComponents();
+        for (int j = 0; j < components.size(); j++) {
+            int[] variables = components.get(j).getVariables();
+            for (int i = 0; i < variables.length; i++) {
+                double probability = global.getProbability(j, i);
+                if (probability < lowest) {
+                    lowest = probability;
+                    interval = 0.0;
+                    lowProb.clear();
+                }
+                if (probability == lowest) {
+                    lowProb.set(variables[i]);
+                    interval = Math.max(interval, global.getHalfWidth(j, i));
+                }
             }
         }
-        // Sort
-        PriorityQueue<Map.Entry<Location, Double>> entryPriorityQueue = new PriorityQueue<>(Comparator.comparingDouble(Map.Entry::getValue));
-        entryPriorityQueue.addAll(probabilities.entrySet());
 
         // All unknown non variables
-        ArrayList<Location> unknownNonVariables = getUnknownNonVariables(variables);
+        int[] unknownNonVariables = global.getUnconstrained();
 
         // Cases:
         // 1: No variables, we add a random from unknown
         // 2: No unknown, we add the least likely bomb from the probability map
         // 3: Neither empty, we add the least likely out of [least likely variable, random unknown non-variable]
 
-        if (entryPriorityQueue.isEmpty()) {
-            this.pendingMoves.add(unknownNonVariables.get(this.generator.nextInt(unknownNonVariables.size())));
-        } else if (unknownNonVariables.isEmpty()) {
-            this.pendingMoves.add(randomLowestProbability(entryPriorityQueue));
+        double risk;
+        if (lowProb.isEmpty()) {
+            this.pendingMoves.set(unknownNonVariables[this.generator.nextInt(unknownNonVariables.length)]);
+            risk = global.getUnconstrainedProbability();
+        } else if (unknownNonVariables.length == 0) {
+            this.pendingMoves.set(randomLowestProbability(lowProb));
+            risk = lowest;
         } else {
-            double probabilityOfUnknowns = (100.0 * bombsOutsideVariables) / unknownNonVariables.size();
-            if (probabilityOfUnknowns < entryPriorityQueue.peek().getValue()) {
-                this.pendingMoves.add(unknownNonVariables.get(this.generator.nextInt(unknownNonVariables.size())));
+            double probabilityOfUnknowns = global.getUnconstrainedProbability();
+            if (probabilityOfUnknowns < lowest) {
+                this.pendingMoves.set(unknownNonVariables[this.generator.nextInt(unknownNonVariables.length)]);
+                risk = probabilityOfUnknowns;
             } else {
-                this.pendingMoves.add(randomLowestProbability(entryPriorityQueue));
+                this.pendingMoves.set(randomLowestProbability(lowProb));
+                risk = lowest;
             }
         }
+        this.metrics.guesses.increment();
+        this.metrics.guessRisk.observe(risk);
+        // Only guesses on sampled squares have an interval
+        if (risk == lowest && interval > 0) this.metrics.guessInterval.observe(interval);
+        event.end(Phase.GUESS, components.size(), 0, 0, 0);
     }
 
-    private Location randomLowestProbability(PriorityQueue<Map.Entry<Location, Double>> sortedProbabilities) {
-        ArrayList<Map.Entry<Location, Double>> lowProb = new ArrayList<>();
-        lowProb.add(sortedProbabilities.poll());
-        double prob = lowProb.get(0).getValue();
-        while (!sortedProbabilities.isEmpty() && sortedProbabilities.peek().getValue() == prob) {
-            lowProb.add(sortedProbabilities.poll());
-        }
-        return lowProb.get(this.generator.nextInt(lowProb.size())).getKey();
+    private int randomLowestProbability(BitSet lowProb) {
+        int pick = this.generator.nextInt(lowProb.cardinality());
+        int id = lowProb.nextSetBit(0);
+        while (pick-- > 0) id = lowProb.nextSetBit(id + 1);
+        return id;
     }
 
     // Intermediate method that's called by controller.
     public Location markBomb() {
         Location returnValue = null;
         while (!this.unmarkedBombs.isEmpty()) {
-            Location bomb = nextBomb();
-            if (!this.markedBombs.contains(bomb)) {
-                this.markedBombs.add(bomb);
-                returnValue = bomb;
+            int bomb = nextBomb();
+            if (!this.markedBombs.get(bomb)) {
+                this.markedBombs.set(bomb);
+                returnValue = this.grid.getVariable(bomb);
                 this.bombs--;
                 break;
             }
@@ -244,45 +431,43 @@ public class Agent {
     }
 
     // Returns unmarket bomb
-    private Location nextBomb() {
-        Iterator<Location> it = this.unmarkedBombs.iterator();
-        Location bomb = it.next();
-        it.remove();
+    private int nextBomb() {
+        int bomb = this.unmarkedBombs.nextSetBit(0);
+        this.unmarkedBombs.clear(bomb);
         return bomb;
     }
 
     // Gives number of unmarked bombs
     private int unmarkedBombsCounter() {
         int counter = 0;
-        for (Location position : this.unmarkedBombs) {
-            if (!this.markedBombs.contains(position)) counter++;
+        for (int position = this.unmarkedBombs.nextSetBit(0); position >= 0; position = this.unmarkedBombs.nextSetBit(position + 1)) {
+            if (!this.markedBombs.get(position)) counter++;
         }
         return counter;
     }
 
-    // Returns pending move
-    private Location nextPending() {
-        Iterator<Location> it = pendingMoves.iterator();
-        Location pos = it.next();
-        it.remove();
+    // Returns pending move, -1 if there is none
+    private int nextPending() {
+        int pos = this.pendingMoves.nextSetBit(0);
+        if (pos < 0) return -1;
+        this.pendingMoves.clear(pos);
         return pos;
     }
 
-    // Returns the the unknown non variables as a list
-    public ArrayList<Location> getUnknownNonVariables(Set<Location> variables) {
-        ArrayList<Location> unknownNonVars = new ArrayList<>();
-        for (int i = 0; i < this.width; i++) {
-            for (int j = 0; j < this.height; j++) {
-                if (
-                        this.board.getBoard()[i][j] == ContextBoard.UNKNOWN &&
-                                !variables.contains(this.grid.getVariable(i, j)) &&
-                                !this.unmarkedBombs.contains(this.grid.getVariable(i, j))
-                ) {
-                    unknownNonVars.add(this.grid.getVariable(i, j));
-                }
+    // Returns the cell ids of the unknown non variables
+    public int[] getUnknownNonVariables(BitSet variables) {
+        int[] unknownNonVars = new int[this.grid.size()];
+        int count = 0;
+        for (int id = 0; id < this.grid.size(); id++) {
+            if (
+                    this.board.getCell(id) == ContextBoard.UNKNOWN &&
+                            !variables.get(id) &&
+                            !this.unmarkedBombs.get(id)
+            ) {
+                unknownNonVars[count++] = id;
             }
         }
-        return unknownNonVars;
+        return Arrays.copyOf(unknownNonVars, count);
     }
 
 
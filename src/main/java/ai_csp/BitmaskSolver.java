@@ -0,0 +1,307 @@
+package ai_csp;
+
+import java.util.*;
+
+/*
+ *
+ * Pure Java replacement for the per-variable CSPModel queries of a constraint set.
+ * Variables are numbered 0..n-1 and every solution that is found is stored as
+ * a bitmask of mines. Two more bitmasks remember which values have been seen for
+ * each variable in some solution. A variable whose other value was never seen
+ * is searched for once more with that value assumed; if there is no such
+ * solution, the variable is forced. Since every solution marks all variables at
+ * once, most variables are settled without a search of their own.
+ *
+ */
+public class BitmaskSolver {
+
+    private static final byte UNASSIGNED = -1;
+
+    private final int[] variables;              // cell ids
+    private final int[][] constraintVariables;  // variable indices of each constraint
+    private final int[][] variableConstraints;  // constraint indices of each variable
+    private final int[] sums;
+
+    // Search state
+    private final byte[] values;
+    private final int[] mines;                  // mines assigned so far, per constraint
+    private final int[] open;                   // unassigned variables, per constraint
+    private final int[] trail;
+    private int trailSize;
+
+    // Values seen in solutions, one bit per variable
+    private final long[] seenMine;
+    private final long[] seenSafe;
+
+    // Cooperative time limit, checked every DEADLINE_CHECK nodes
+    private static final int DEADLINE_CHECK = 1024;
+    private Deadline deadline = Deadline.NONE;
+    private int nodes;
+    private boolean expired;
+
+    /*
+     * Numbers the variables of a constraint group in breadth first order over the constraints,
+     * so that constraints are closed early in the search.
+     *
+     * constraints constraint group
+     * variables cell ids of all variables in the constraint group, sorted
+     */
+    public BitmaskSolver(Collection<ConstraintDetails> constraints, int[] variables) {
+        int n = variables.length;
+        ConstraintDetails[] details = constraints.toArray(new ConstraintDetails[0]);
+
+        // Variables of each constraint by their position in the sorted ids, and the constraints of each variable
+        int[][] dense = new int[details.length][];
+        int[] degree = new int[n];
+        for (int c = 0; c < details.length; c++) {
+            dense[c] = new int[details[c].size()];
+            for (int i = 0; i < dense[c].length; i++) {
+                dense[c][i] = Arrays.binarySearch(variables, details[c].getUnknownNeighbour(i));
+                degree[dense[c][i]]++;
+            }
+        }
+        int[][] incidence = new int[n][];
+        for (int v = 0; v < n; v++) incidence[v] = new int[degree[v]];
+        for (int c = 0; c < details.length; c++) {
+            for (int v : dense[c]) incidence[v][--degree[v]] = c;
+        }
+
+        int[] index = new int[n];
+        int[] constraintIndex = new int[details.length];
+        Arrays.fill(index, -1);
+        Arrays.fill(constraintIndex, -1);
+        int[] queue = new int[n];
+        int next = 0;
+        int m = 0;
+        for (int start = 0; start < n; start++) {
+            if (index[start] >= 0) continue;
+            index[start] = next++;
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = start;
+            while (head < tail) {
+                for (int c : incidence[queue[head++]]) {
+                    if (constraintIndex[c] >= 0) continue;
+                    constraintIndex[c] = m++;
+                    for (int v : dense[c]) {
+                        if (index[v] < 0) {
+                            index[v] = next++;
+                            queue[tail++] = v;
+                        }
+                    }
+                }
+            }
+        }
+
+        this.variables = new int[n];
+        for (int v = 0; v < n; v++) this.variables[index[v]] = variables[v];
+
+        this.constraintVariables = new int[m][];
+        this.sums = new int[m];
+        for (int c = 0; c < details.length; c++) {
+            if (constraintIndex[c] < 0) continue;
+            int[] vars = new int[dense[c].length];
+            for (int i = 0; i < vars.length; i++) {
+                vars[i] = index[dense[c][i]];
+                degree[vars[i]]++;
+            }
+            this.constraintVariables[constraintIndex[c]] = vars;
+            this.sums[constraintIndex[c]] = details[c].getNeighbourBombs();
+        }
+        this.variableConstraints = new int[n][];
+        for (int v = 0; v < n; v++) this.variableConstraints[v] = new int[degree[v]];
+        for (int c = 0; c < m; c++) {
+            for (int v : this.constraintVariables[c]) this.variableConstraints[v][--degree[v]] = c;
+        }
+
+        this.values = new byte[n];
+        this.mines = new int[m];
+        this.open = new int[m];
+        this.trail = new int[n];
+        this.seenMine = new long[(n + 63) >> 6];
+        this.seenSafe = new long[(n + 63) >> 6];
+    }
+
+    /*
+     * Finds every forced variable of the group in one call.
+     *
+     * @return the safe and bomb variables, or an inconsistent result if the group has no solution
+     */
+    public Deduction deduce() {
+        return deduce(Deadline.NONE);
+    }
+
+    /*
+     * Same as above, but stops at the deadline. The variables forced until then are certain,
+     * the others are unknown and the result is marked as not complete.
+     */
+    public Deduction deduce(Deadline deadline) {
+        this.deadline = deadline;
+        this.nodes = 0;
+        this.expired = false;
+        Arrays.fill(this.values, UNASSIGNED);
+        for (int c = 0; c < this.sums.length; c++) this.open[c] = this.constraintVariables[c].length;
+        Arrays.fill(this.mines, 0);
+        Arrays.fill(this.seenMine, 0L);
+        Arrays.fill(this.seenSafe, 0L);
+        this.trailSize = 0;
+
+        Deduction deduction = new Deduction();
+        if (!propagateAll() || !findSolution()) {
+            if (this.expired) deduction.complete = false;
+            else deduction.consistent = false;
+            return deduction;
+        }
+        for (int v = 0; v < this.variables.length; v++) {
+            boolean mine = isSet(this.seenMine, v);
+            boolean safe = isSet(this.seenSafe, v);
+            if (mine && safe) continue;
+
+            // Try the value that hasn't been seen yet, unless it was already fixed at the root
+            if (this.values[v] == UNASSIGNED) {
+                int root = this.trailSize;
+                boolean found = assign(v, (byte) (mine ? 0 : 1)) && findSolution();
+                undo(root);
+                // No solution found in time proves nothing
+                if (this.expired) {
+                    deduction.complete = false;
+                    return deduction;
+                }
+                if (found) continue;
+            }
+
+            // It has no solution, so the variable is forced. Keeping it assigned helps the next searches.
+            if (mine) deduction.bombs.set(this.variables[v]);
+            else deduction.safe.set(this.variables[v]);
+            if (this.values[v] == UNASSIGNED) assign(v, (byte) (mine ? 1 : 0));
+        }
+        return deduction;
+    }
+
+    // Root propagation of constraints that are already tight.
+    private boolean propagateAll() {
+        for (int c = 0; c < this.sums.length; c++) {
+            if (!propagate(c)) return false;
+        }
+        return true;
+    }
+
+    /*
+     * Depth first search for a solution from the current assignment. A found solution is
+     * recorded in the seen masks and the assignment is restored before returning.
+     */
+    private boolean findSolution() {
+        int root = this.trailSize;
+        boolean found = search();
+        if (found) record();
+        undo(root);
+        return found;
+    }
+
+    private boolean search() {
+        if ((++this.nodes & (DEADLINE_CHECK - 1)) == 0 && this.deadline.isExpired()) this.expired = true;
+        if (this.expired) return false;
+        int v = 0;
+        while (v < this.values.length && this.values[v] != UNASSIGNED) v++;
+        if (v == this.values.length) return true;
+
+        // Prefer a value this variable hasn't shown yet, the solution is then more informative
+        byte first = isSet(this.seenMine, v) ? (byte) 0 : 1;
+        for (byte value : new byte[]{first, (byte) (1 - first)}) {
+            int mark = this.trailSize;
+            if (assign(v, value) && search()) return true;
+            undo(mark);
+        }
+        return false;
+    }
+
+    /*
+     * Assigns a value and propagates the sum constraints of the variable: once a constraint has
+     * all its mines, its other variables are safe; once it needs all its open variables, they are mines.
+     *
+     * @return false iff a constraint can no longer be satisfied
+     */
+    private boolean assign(int v, byte value) {
+        this.values[v] = value;
+        this.trail[this.trailSize++] = v;
+        for (int c : this.variableConstraints[v]) {
+            this.open[c]--;
+            this.mines[c] += value;
+        }
+        for (int c : this.variableConstraints[v]) {
+            if (!propagate(c)) return false;
+        }
+        return true;
+    }
+
+    private boolean propagate(int c) {
+        if (this.mines[c] > this.sums[c] || this.mines[c] + this.open[c] < this.sums[c]) return false;
+        if (this.open[c] == 0) return true;
+        byte forced;
+        if (this.mines[c] == this.sums[c]) forced = 0;
+        else if (this.mines[c] + this.open[c] == this.sums[c]) forced = 1;
+        else return true;
+        for (int u : this.constraintVariables[c]) {
+            if (this.values[u] == UNASSIGNED && !assign(u, forced)) return false;
+        }
+        return true;
+    }
+
+    // Unassigns everything above the trail mark.
+    private void undo(int mark) {
+        while (this.trailSize > mark) {
+            int v = this.trail[--this.trailSize];
+            for (int c : this.variableConstraints[v]) {
+                this.open[c]++;
+                this.mines[c] -= this.values[v];
+            }
+            this.values[v] = UNASSIGNED;
+        }
+    }
+
+    // Marks the values of the current (complete) assignment as seen.
+    private void record() {
+        for (int v = 0; v < this.values.length; v++) {
+            if (this.values[v] == 1) this.seenMine[v >> 6] |= 1L << v;
+            else this.seenSafe[v >> 6] |= 1L << v;
+        }
+    }
+
+    private static boolean isSet(long[] mask, int v) {
+        return (mask[v >> 6] & (1L << v)) != 0;
+    }
+
+    // Forced variables of a constraint group, as sets of cell ids.
+    public static class Deduction {
+        private final BitSet safe = new BitSet();
+        private final BitSet bombs = new BitSet();
+        private boolean consistent = true;
+        private boolean complete = true;
+
+        Deduction() {
+        }
+
+        // An empty result, filled in through the getters by ComponentCache
+        Deduction(boolean consistent) {
+            this.consistent = consistent;
+        }
+
+        public BitSet getSafe() {
+            return this.safe;
+        }
+
+        public BitSet getBombs() {
+            return this.bombs;
+        }
+
+        // false iff the constraints have no solution at all
+        public boolean isConsistent() {
+            return this.consistent;
+        }
+
+        // false iff the deadline stopped the search, more variables may be forced
+        public boolean isComplete() {
+            return this.complete;
+        }
+    }
+}
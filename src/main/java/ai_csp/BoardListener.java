@@ -0,0 +1,11 @@
+package ai_csp;
+
+// Receives every change of the knowledge in a ContextBoard.
+public interface BoardListener {
+
+    // The square id has no bomb and `neighbour` bombs around it.
+    void revealed(int id, int neighbour);
+
+    // The square id contains a bomb.
+    void bombFound(int id);
+}
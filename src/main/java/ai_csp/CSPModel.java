@@ -6,80 +6,69 @@ import org.chocosolver.solver.constraints.Constraint;
 import org.chocosolver.solver.exception.ContradictionException;
 import org.chocosolver.solver.variables.IntVar;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.Collection;
 
 public class CSPModel {
 
     private final Model model;
-    private final Map<Location, IntVar> varMap;
+    private final int[] variables;
+    private final IntVar[] vars;
 
-    // initialize model with final stage constraint,sum of all unknowns = remaining bombs
-    public CSPModel(FinalStageConstraint constraint) throws ContradictionException {
+    // Creates a Choco model using the constraint in a given constraint group, variables are sorted cell ids.
+    public CSPModel(Collection<ConstraintDetails> constraints, int[] variables) throws ContradictionException {
+        Events.ModelBuild event = new Events.ModelBuild();
+        event.begin();
         this.model = new Model();
-        this.varMap = new HashMap<>();
+        this.variables = variables;
+        this.vars = new IntVar[variables.length];
 
         // Map each variable to a Choco variable
-        for (Location loc : constraint.getVariables()) this.varMap.put(loc, this.model.intVar(loc.toString(), 0, 1));
-
-        // Create Choco constraints from our constraints
-        for (ConstraintDetails c : constraint.getConstraints()) {
-            IntVar[] con = new IntVar[c.getUnknownNeighbours().size()];
-            int index = 0;
-            for (Location loc : c.getUnknownNeighbours()) {
-                con[index] = this.varMap.get(loc);
-                index++;
-            }
-            this.model.sum(con, "=", c.getNeighbourBombs()).post();
-        }
-
-        IntVar[] con = new IntVar[constraint.getVariables().size()];
-        int index = 0;
-        for (Location loc : constraint.getVariables()) {
-            con[index] = varMap.get(loc);
-            index++;
-        }
-        this.model.sum(con, "=", constraint.getBombsRemaining());
-
-        // constraint propagation
-        this.model.getSolver().propagate();
-    }
-
-    // Creates a Choco model using the constraint in a given constraint group.
-    public CSPModel(Set<ConstraintDetails> constraints, Set<Location> variables) throws ContradictionException {
-        this.model = new Model();
-        this.varMap = new HashMap<>();
-
-        // Map each variable to a Choco variable
-        for (Location loc : variables) this.varMap.put(loc, this.model.intVar(loc.toString(), 0, 1));
+        for (int i = 0; i < variables.length; i++) this.vars[i] = this.model.intVar(String.valueOf(variables[i]), 0, 1);
 
         // Create Choco constraints from our constraints
         for (ConstraintDetails c : constraints) {
-            IntVar[] con = new IntVar[c.getUnknownNeighbours().size()];
-            int index = 0;
-            for (Location loc : c.getUnknownNeighbours()) {
-                con[index] = this.varMap.get(loc);
-                index++;
+            IntVar[] con = new IntVar[c.size()];
+            for (int index = 0; index < con.length; index++) {
+                con[index] = varOf(c.getUnknownNeighbour(index));
             }
             this.model.sum(con, "=", c.getNeighbourBombs()).post();
         }
         // constraint propagation
-        this.model.getSolver().propagate();
+        try {
+            this.model.getSolver().propagate();
+        } catch (ContradictionException e) {
+            event.end(variables.length, constraints.size(), true);
+            throw e;
+        }
+        event.end(variables.length, constraints.size(), false);
     }
 
     // A location does not contain a bomb, check if it leads to a contradiction. If so, it must contain a bomb.
-    public boolean hasBomb(Location location) {
-        return containsContradiction(model.arithm(varMap.get(location), "=", 0));
+    public boolean hasBomb(int location) {
+        Events.ModelQuery event = new Events.ModelQuery();
+        event.begin();
+        boolean forced = containsContradiction(model.arithm(varOf(location), "=", 0));
+        event.end("hasBomb", location, this.variables.length, forced);
+        return forced;
     }
 
     // A location contains a bomb, check if it leads to a contradiction. If so, it must not contain a bomb.
-    public boolean hasNoBombs(Location location) {
-        return containsContradiction(model.arithm(varMap.get(location), "=", 1));
+    public boolean hasNoBombs(int location) {
+        Events.ModelQuery event = new Events.ModelQuery();
+        event.begin();
+        boolean forced = containsContradiction(model.arithm(varOf(location), "=", 1));
+        event.end("hasNoBombs", location, this.variables.length, forced);
+        return forced;
+    }
+
+    private IntVar varOf(int location) {
+        return this.vars[Arrays.binarySearch(this.variables, location)];
     }
 
     // Use of Choco solver to see if we can find a solution given an assumption.
     private boolean containsContradiction(Constraint assumption) {
+        Metrics.get().chocoCalls.increment();
         model.getEnvironment().worldPush();
         model.post(assumption);
         Solution sol = model.getSolver().findSolution();
@@ -0,0 +1,304 @@
+package ai_csp;
+
+import org.chocosolver.solver.exception.ContradictionException;
+
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ *
+ * Bounded LRU cache of solved constraint components, shared by any number of agents.
+ * The same small frontier shapes come up again and again, within a game and across
+ * games, so a component is stored under a canonical form: its variables are relabelled
+ * 0..n-1 in an order that only depends on the constraint sums, the variable incidence
+ * and the relative position of the squares. The key is the whole relabelled problem,
+ * so two components with the same key are the same problem. A shape moved anywhere
+ * on any board gets the same key; rotated or mirrored shapes may not.
+ * Cached are the forced cells of BitmaskSolver and the exact solution counts of Probability
+ * or FrontierCounter, both by label, and mapped back to the cell ids of the component on a hit.
+ *
+ */
+public class ComponentCache {
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final int MAX_VARIABLES = ProbabilityEstimator.SAMPLING_MARK;     // components this large hardly repeat, and are sampled
+
+    private final Map<Key, Forced> deductions;
+    private final Map<Key, Counts> counts;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    // capacity number of deductions and of solution counts that are kept each
+    public ComponentCache(int capacity) {
+        this.deductions = lru(capacity);
+        this.counts = lru(capacity);
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+    }
+
+    public ComponentCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /*
+     * Forced cells of a component, as BitmaskSolver.deduce() finds them.
+     *
+     * constraints constraint group
+     * variables cell ids of all variables in the constraint group, sorted
+     */
+    public BitmaskSolver.Deduction deduce(Collection<ConstraintDetails> constraints, int[] variables) {
+        return deduce(constraints, variables, Deadline.NONE);
+    }
+
+    // Same as above, stopped at the deadline. Results that aren't complete are not kept.
+    public BitmaskSolver.Deduction deduce(Collection<ConstraintDetails> constraints, int[] variables, Deadline deadline) {
+        Events.Deduction event = new Events.Deduction();
+        event.begin();
+        BitmaskSolver.Deduction deduction = deduce(constraints, variables, deadline, event);
+        event.end(variables.length, constraints.size(), deduction);
+        return deduction;
+    }
+
+    private BitmaskSolver.Deduction deduce(Collection<ConstraintDetails> constraints, int[] variables, Deadline deadline, Events.Deduction event) {
+        if (variables.length >= MAX_VARIABLES) {
+            Metrics.get().bitmaskCalls.increment();
+            return new BitmaskSolver(constraints, variables).deduce(deadline);
+        }
+        Canonical canonical = new Canonical(constraints, variables);
+        Forced forced;
+        synchronized (this.deductions) {
+            forced = this.deductions.get(canonical.key);
+        }
+        if (forced != null) {
+            this.hits.incrementAndGet();
+            event.hit();
+            BitmaskSolver.Deduction deduction = new BitmaskSolver.Deduction(forced.consistent);
+            for (int i = 0; i < variables.length; i++) {
+                byte value = forced.values[canonical.labels[i]];
+                if (value == 0) deduction.getSafe().set(variables[i]);
+                else if (value == 1) deduction.getBombs().set(variables[i]);
+            }
+            return deduction;
+        }
+        this.misses.incrementAndGet();
+        Metrics.get().bitmaskCalls.increment();
+        BitmaskSolver.Deduction deduction = new BitmaskSolver(constraints, variables).deduce(deadline);
+        if (!deduction.isComplete()) return deduction;
+        byte[] values = new byte[variables.length];
+        for (int i = 0; i < variables.length; i++) {
+            if (deduction.getSafe().get(variables[i])) values[canonical.labels[i]] = 0;
+            else if (deduction.getBombs().get(variables[i])) values[canonical.labels[i]] = 1;
+            else values[canonical.labels[i]] = -1;
+        }
+        synchronized (this.deductions) {
+            this.deductions.put(canonical.key, new Forced(values, deduction.isConsistent()));
+        }
+        return deduction;
+    }
+
+    /*
+     * Solution counts of a component, as the ProbabilityEstimator for its size finds them.
+     *
+     * constraints constraint group
+     * variables cell ids of all variables in the constraint group, sorted
+     * @throws ContradictionException if the constraints contradict each other
+     */
+    public SolutionCounts count(Collection<ConstraintDetails> constraints, int[] variables) throws ContradictionException {
+        return count(constraints, variables, Deadline.NONE);
+    }
+
+    // Same as above, stopped at the deadline. Counts that aren't exact are not kept.
+    public SolutionCounts count(Collection<ConstraintDetails> constraints, int[] variables, Deadline deadline) throws ContradictionException {
+        Events.Count event = new Events.Count();
+        event.begin();
+        SolutionCounts counts = null;
+        try {
+            counts = count(constraints, variables, deadline, event);
+            return counts;
+        } finally {
+            event.end(variables.length, constraints.size(), counts);
+        }
+    }
+
+    private SolutionCounts count(Collection<ConstraintDetails> constraints, int[] variables, Deadline deadline, Events.Count event) throws ContradictionException {
+        if (variables.length >= MAX_VARIABLES) return estimate(constraints, variables, deadline);
+        Canonical canonical = new Canonical(constraints, variables);
+        Counts cached;
+        synchronized (this.counts) {
+            cached = this.counts.get(canonical.key);
+        }
+        if (cached != null) {
+            this.hits.incrementAndGet();
+            event.hit();
+            BigInteger[][] cellBombs = new BigInteger[cached.cellBombs.length][variables.length];
+            for (int k = 0; k < cellBombs.length; k++) {
+                for (int i = 0; i < variables.length; i++) cellBombs[k][i] = cached.cellBombs[k][canonical.labels[i]];
+            }
+            return new SolutionCounts(variables, cellBombs, cached.solutions);
+        }
+        this.misses.incrementAndGet();
+        SolutionCounts result = estimate(constraints, variables, deadline);
+        if (!result.isExact()) return result;
+        BigInteger[][] cellBombs = new BigInteger[result.getSolutions().length][variables.length];
+        for (int k = 0; k < cellBombs.length; k++) {
+            for (int i = 0; i < variables.length; i++) cellBombs[k][canonical.labels[i]] = result.getCellBombs(k, i);
+        }
+        synchronized (this.counts) {
+            this.counts.put(canonical.key, new Counts(cellBombs, result.getSolutions()));
+        }
+        return result;
+    }
+
+    private static SolutionCounts estimate(Collection<ConstraintDetails> constraints, int[] variables, Deadline deadline) throws ContradictionException {
+        ProbabilityEstimator estimator = ProbabilityEstimator.of(constraints, variables, deadline);
+        Metrics metrics = Metrics.get();
+        if (estimator instanceof FrontierCounter) metrics.frontierCalls.increment();
+        else if (estimator instanceof SamplingProbability) metrics.samplingCalls.increment();
+        else metrics.probabilityCalls.increment();
+        return estimator.countParallel();
+    }
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    // Hits in percent of all lookups
+    public double getHitRate() {
+        long lookups = getHits() + getMisses();
+        return lookups == 0 ? 0.0 : 100.0 * getHits() / lookups;
+    }
+
+    public int size() {
+        synchronized (this.deductions) {
+            synchronized (this.counts) {
+                return this.deductions.size() + this.counts.size();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Cache hits %d | misses %d | hit rate %.2f%% | entries %d", getHits(), getMisses(), getHitRate(), size());
+    }
+
+    private static <V> Map<Key, V> lru(int capacity) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, V> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /*
+     * The relabelled problem. Constraints are ordered by their sum, their size and the degrees
+     * of their variables, ties by position. Variables are labelled in the order they first
+     * appear in that order, within a constraint by degree and then position.
+     */
+    private static class Canonical {
+        private final Key key;
+        private final int[] labels;     // label of each variable, in the order of the sorted cell ids
+
+        private Canonical(Collection<ConstraintDetails> constraints, int[] variables) {
+            ConstraintDetails[] details = constraints.toArray(new ConstraintDetails[0]);
+            int[] degree = new int[variables.length];
+            int[][] members = new int[details.length][];
+            for (int c = 0; c < details.length; c++) {
+                members[c] = new int[details[c].size()];
+                for (int i = 0; i < members[c].length; i++) {
+                    members[c][i] = Arrays.binarySearch(variables, details[c].getUnknownNeighbour(i));
+                    degree[members[c][i]]++;
+                }
+            }
+            // Sorted by degree, then position: indices are in cell id order
+            Comparator<Integer> byDegree = Comparator.<Integer>comparingInt(v -> degree[v]).thenComparingInt(v -> v);
+            int[][] signature = new int[details.length][];
+            for (int c = 0; c < details.length; c++) {
+                Integer[] order = box(members[c]);
+                Arrays.sort(order, byDegree);
+                signature[c] = new int[order.length + 2];
+                signature[c][0] = details[c].getNeighbourBombs();
+                signature[c][1] = order.length;
+                for (int i = 0; i < order.length; i++) {
+                    members[c][i] = order[i];
+                    signature[c][i + 2] = degree[order[i]];
+                }
+            }
+            Integer[] constraintOrder = new Integer[details.length];
+            for (int c = 0; c < details.length; c++) constraintOrder[c] = c;
+            Arrays.sort(constraintOrder, Comparator.<Integer, int[]>comparing(c -> signature[c], Arrays::compare)
+                    .thenComparingInt(c -> details[c].getLocation()));
+
+            this.labels = new int[variables.length];
+            Arrays.fill(this.labels, -1);
+            int next = 0;
+            int[] encoding = new int[2 + 2 * details.length + Arrays.stream(members).mapToInt(m -> m.length).sum()];
+            int position = 0;
+            encoding[position++] = variables.length;
+            encoding[position++] = details.length;
+            for (int c : constraintOrder) {
+                encoding[position++] = details[c].getNeighbourBombs();
+                encoding[position++] = members[c].length;
+                int start = position;
+                for (int v : members[c]) {
+                    if (this.labels[v] < 0) this.labels[v] = next++;
+                    encoding[position++] = this.labels[v];
+                }
+                Arrays.sort(encoding, start, position);
+            }
+            this.key = new Key(encoding);
+        }
+
+        private static Integer[] box(int[] values) {
+            Integer[] boxed = new Integer[values.length];
+            for (int i = 0; i < values.length; i++) boxed[i] = values[i];
+            return boxed;
+        }
+    }
+
+    private static class Key {
+        private final int[] encoding;
+        private final int hash;
+
+        private Key(int[] encoding) {
+            this.encoding = encoding;
+            this.hash = Arrays.hashCode(encoding);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(this.encoding, ((Key) o).encoding);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+
+    // Forced value of each label: 0 safe, 1 bomb, -1 not forced
+    private static class Forced {
+        private final byte[] values;
+        private final boolean consistent;
+
+        private Forced(byte[] values, boolean consistent) {
+            this.values = values;
+            this.consistent = consistent;
+        }
+    }
+
+    // Solution counts by label
+    private static class Counts {
+        private final BigInteger[][] cellBombs;
+        private final BigInteger[] solutions;
+
+        private Counts(BigInteger[][] cellBombs, BigInteger[] solutions) {
+            this.cellBombs = cellBombs;
+            this.solutions = solutions;
+        }
+    }
+}
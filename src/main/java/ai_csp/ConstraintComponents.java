@@ -0,0 +1,181 @@
+package ai_csp;
+
+import java.util.*;
+
+/*
+ *
+ * The independent constraint sets of a ContextBoard, kept up to date while the
+ * board changes instead of being rebuilt for every search. A new constraint
+ * merges every component that owns one of its variables. A constraint that loses
+ * a variable or is removed may split its component; such components are only
+ * re-split when the components are asked for. Every component that changed is
+ * dirty until the agent has solved it.
+ *
+ */
+public class ConstraintComponents {
+
+    private final Set<Component> components;
+    private final Component[] byConstraint;     // constraint location -> component
+    private final Component[] byVariable;       // variable -> component, may be out of date until split
+    private final Set<Component> toSplit;
+
+    // size number of cells of the board
+    public ConstraintComponents(int size) {
+        this.components = new LinkedHashSet<>();
+        this.byConstraint = new Component[size];
+        this.byVariable = new Component[size];
+        this.toSplit = new HashSet<>();
+    }
+
+    // A new constraint, merged with the components of its variables.
+    public void added(ConstraintDetails detail) {
+        Component target = null;
+        List<Component> owners = new ArrayList<>();
+        for (int i = 0; i < detail.size(); i++) {
+            Component owner = this.byVariable[detail.getUnknownNeighbour(i)];
+            if (owner == null || !this.components.contains(owner) || owners.contains(owner)) continue;
+            owners.add(owner);
+            if (target == null || owner.constraints.size() > target.constraints.size()) target = owner;
+        }
+        if (target == null) {
+            target = new Component();
+            this.components.add(target);
+        }
+        for (Component owner : owners) {
+            if (owner != target) merge(owner, target);
+        }
+        add(target, detail);
+        target.touch();
+    }
+
+    // The constraint at location lost a variable, its component may fall apart.
+    public void changed(int location) {
+        Component component = this.byConstraint[location];
+        if (component == null) return;
+        component.touch();
+        this.toSplit.add(component);
+    }
+
+    // The constraint is gone.
+    public void removed(ConstraintDetails detail) {
+        Component component = this.byConstraint[detail.getLocation()];
+        if (component == null) return;
+        this.byConstraint[detail.getLocation()] = null;
+        component.constraints.remove(detail);
+        component.touch();
+        this.toSplit.add(component);
+    }
+
+    // All current components, after splitting those that may have fallen apart.
+    public Collection<Component> getComponents() {
+        for (Component component : this.toSplit) split(component);
+        this.toSplit.clear();
+        return this.components;
+    }
+
+    private void add(Component component, ConstraintDetails detail) {
+        component.constraints.add(detail);
+        this.byConstraint[detail.getLocation()] = component;
+        for (int i = 0; i < detail.size(); i++) this.byVariable[detail.getUnknownNeighbour(i)] = component;
+    }
+
+    // Moves all constraints of source into target.
+    private void merge(Component source, Component target) {
+        for (ConstraintDetails detail : source.constraints) add(target, detail);
+        this.components.remove(source);
+        if (this.toSplit.remove(source)) this.toSplit.add(target);
+    }
+
+    /*
+     * Replaces the component by its connected parts, which are all dirty. Same union-find
+     * grouping as ConstraintSets, but keyed by constraint so that two constraints with the
+     * same variables stay apart. Empty constraints are left out, the board removes them.
+     */
+    private void split(Component component) {
+        if (!this.components.remove(component)) return;
+        int[] variables = component.getVariables();
+        UnionFind union = new UnionFind(variables.length);
+        for (ConstraintDetails detail : component.constraints) {
+            int first = -1;
+            for (int i = 0; i < detail.size(); i++) {
+                int index = Arrays.binarySearch(variables, detail.getUnknownNeighbour(i));
+                if (first < 0) first = index;
+                else union.union(first, index);
+            }
+        }
+
+        Map<Integer, Component> pieces = new LinkedHashMap<>();
+        for (ConstraintDetails detail : component.constraints) {
+            if (detail.isEmpty()) continue;
+            int root = union.find(Arrays.binarySearch(variables, detail.getUnknownNeighbour(0)));
+            add(pieces.computeIfAbsent(root, k -> new Component()), detail);
+        }
+        this.components.addAll(pieces.values());
+    }
+
+    // A set of constraints that shares no variable with any other set.
+    public static class Component {
+        private final Set<ConstraintDetails> constraints;
+        private boolean dirty;
+        private SolutionCounts counts;
+
+        private Component() {
+            this.constraints = new HashSet<>();
+            this.dirty = true;
+        }
+
+        public Set<ConstraintDetails> getConstraints() {
+            return new HashSet<>(this.constraints);
+        }
+
+        // Cell ids of all variables, sorted and without duplicates
+        public int[] getVariables() {
+            return variablesOf(this.constraints);
+        }
+
+        // Number of constraints
+        public int size() {
+            return this.constraints.size();
+        }
+
+        // true iff the component changed since the agent last solved it
+        public boolean isDirty() {
+            return this.dirty;
+        }
+
+        public void clean() {
+            this.dirty = false;
+        }
+
+        // Solution counts stored by the agent, null once the component changed
+        public SolutionCounts getCounts() {
+            return this.counts;
+        }
+
+        public void setCounts(SolutionCounts counts) {
+            this.counts = counts;
+        }
+
+        private void touch() {
+            this.dirty = true;
+            this.counts = null;
+        }
+    }
+
+    // Sorted cell ids of the variables of some constraints, without duplicates.
+    public static int[] variablesOf(Collection<ConstraintDetails> constraints) {
+        int size = 0;
+        for (ConstraintDetails detail : constraints) size += detail.size();
+        int[] variables = new int[size];
+        int count = 0;
+        for (ConstraintDetails detail : constraints) {
+            for (int i = 0; i < detail.size(); i++) variables[count++] = detail.getUnknownNeighbour(i);
+        }
+        Arrays.sort(variables);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || variables[distinct - 1] != variables[i]) variables[distinct++] = variables[i];
+        }
+        return Arrays.copyOf(variables, distinct);
+    }
+}
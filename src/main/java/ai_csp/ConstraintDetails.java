@@ -1,19 +1,35 @@
 package ai_csp;
 
-import java.util.Set;
+import java.util.Arrays;
 
 // A data structure for a single constraint.
 
 public class ConstraintDetails {
-    private final Set<Location> unknownNeighbours;
+    private final int location;
+    private final int[] unknownNeighbours;  // cell ids, only the first size are in use
+    private int size;
     private int neighbourBombs;
 
-    // Constructs the constraint sum(unknownNeighbours) = adjacentBombs
-    public ConstraintDetails(Set<Location> unknownNeighbours, int neighbourBombs) {
-        this.unknownNeighbours = unknownNeighbours;
+    /*
+     * Constructs the constraint sum(unknownNeighbours) = adjacentBombs
+     *
+     * location cell id of the revealed square
+     * unknownNeighbours cell ids of the unknown neighbours, at most 8
+     * size number of unknown neighbours in the array
+     * neighbourBombs bombs among the unknown neighbours
+     */
+    public ConstraintDetails(int location, int[] unknownNeighbours, int size, int neighbourBombs) {
+        this.location = location;
+        this.unknownNeighbours = Arrays.copyOf(unknownNeighbours, size);
+        this.size = size;
         this.neighbourBombs = neighbourBombs;
     }
 
+    // Cell id of the square the constraint belongs to
+    public int getLocation() {
+        return this.location;
+    }
+
     // Sum of variables
     public int getNeighbourBombs() {
         return this.neighbourBombs;
@@ -21,17 +37,40 @@ public class ConstraintDetails {
 
     public void decrementNeighbourBombs() {this.neighbourBombs--;}
 
-    public Set<Location> getUnknownNeighbours() {
-        return this.unknownNeighbours;
+    // Number of variables
+    public int size() {
+        return this.size;
+    }
+
+    // Cell id of variable i, i = 0..size()-1
+    public int getUnknownNeighbour(int i) {
+        return this.unknownNeighbours[i];
+    }
+
+    // Cell ids of all variables
+    public int[] getUnknownNeighbours() {
+        return Arrays.copyOf(this.unknownNeighbours, this.size);
     }
 
-    public void removeVariable(Location position) {
-        this.unknownNeighbours.remove(position);
+    public boolean contains(int variable) {
+        for (int i = 0; i < this.size; i++) {
+            if (this.unknownNeighbours[i] == variable) return true;
+        }
+        return false;
+    }
+
+    public void removeVariable(int variable) {
+        for (int i = 0; i < this.size; i++) {
+            if (this.unknownNeighbours[i] == variable) {
+                this.unknownNeighbours[i] = this.unknownNeighbours[--this.size];
+                return;
+            }
+        }
     }
 
     // Check if sum(variables) = count(variables) which means all must be bombs.
     public boolean allBombs() {
-        return this.neighbourBombs == unknownNeighbours.size();
+        return this.neighbourBombs == this.size;
     }
 
     // Checks sum(var) = 0, which means no bombs
@@ -41,21 +80,17 @@ public class ConstraintDetails {
 
     // Checks constraint has variables
     public boolean isEmpty() {
-        return this.unknownNeighbours.isEmpty();
-    }
-
-    @Override
-    public boolean equals(Object o) {
-        return this.unknownNeighbours.equals(((ConstraintDetails)o).unknownNeighbours);
+        return this.size == 0;
     }
 
+    // Constraints are equal only to themselves, the hash is the location so that sets of them iterate in a fixed order.
     @Override
     public int hashCode() {
-        return this.unknownNeighbours.hashCode();
+        return this.location;
     }
 
     @Override
     public String toString() {
-        return "[" + neighbourBombs + ", " + unknownNeighbours.toString() + "]";
+        return "[" + neighbourBombs + ", " + Arrays.toString(getUnknownNeighbours()) + "]";
     }
 }
@@ -18,17 +18,60 @@ import java.util.*;
 *
 * */
 public class ConstraintSets {
-    // To make using the Choco framework simpler, a map to every variable in the set is used.
-    private final Map<Set<ConstraintDetails>, Set<Location>> sets;
+    // To make using the Choco framework simpler, a map to the cell ids of every variable in the set is used.
+    private final Map<Set<ConstraintDetails>, int[]> sets;
 
     // Init Constraints sets for knowledge
     public ConstraintSets(ContextBoard board) {
+        this(board.getConstraints());
+    }
+
+    /*
+     * Every variable gets a dense id and the variables of each constraint are joined in a
+     * union-find structure. Constraints and variables are then grouped by the representative
+     * of their set, which takes nearly linear time in the number of constraints.
+     */
+    public ConstraintSets(Collection<ConstraintDetails> constraints) {
         this.sets = new HashMap<>();
-        for (ConstraintDetails detail : board.getConstraintLocations().values()) add(detail);
+        int[] ids = ConstraintComponents.variablesOf(constraints);
+
+        UnionFind union = new UnionFind(ids.length);
+        for (ConstraintDetails detail : constraints) {
+            int first = -1;
+            for (int i = 0; i < detail.size(); i++) {
+                int id = Arrays.binarySearch(ids, detail.getUnknownNeighbour(i));
+                if (first < 0) first = id;
+                else union.union(first, id);
+            }
+        }
 
+        Map<Integer, Set<ConstraintDetails>> groups = new HashMap<>();
+        for (ConstraintDetails detail : constraints) {
+            if (detail.isEmpty()) {
+                // A constraint without variables shares nothing, it is a set by itself
+                Set<ConstraintDetails> single = new HashSet<>();
+                single.add(detail);
+                this.sets.put(single, new int[0]);
+                continue;
+            }
+            int root = union.find(Arrays.binarySearch(ids, detail.getUnknownNeighbour(0)));
+            groups.computeIfAbsent(root, k -> new HashSet<>()).add(detail);
+        }
+        // Every variable is in a group, the ids are sorted so the variables of each group are too
+        int[] sizes = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) sizes[union.find(i)]++;
+        Map<Integer, int[]> variables = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            int root = union.find(i);
+            int[] group = variables.computeIfAbsent(root, k -> new int[sizes[k]]);
+            group[group.length - sizes[root]--] = ids[i];
+        }
+        for (Map.Entry<Integer, Set<ConstraintDetails>> group : groups.entrySet()) {
+            this.sets.put(group.getValue(), variables.get(group.getKey()));
+        }
     }
 
-    public Map<Set<ConstraintDetails>, Set<Location>> getSets() {
+    public Map<Set<ConstraintDetails>, int[]> getSets() {
         return sets;
     }
 
@@ -36,48 +79,4 @@ public class ConstraintSets {
     public boolean isEmpty() {
         return this.sets.isEmpty();
     }
-
-    /*
-     * Adds a new constraint to the sets of constraint set.
-     * Any set that contains any of its variable is added to
-     * a stack and passed to another method to merge with all
-     * sets in the stack, into which we add the new constraint.
-     * If no such set exist, we create a new set.
-    */
-    private void add(ConstraintDetails detail) {
-        Stack<Set<ConstraintDetails>> toMerge = new Stack<>();
-        for (Map.Entry<Set<ConstraintDetails>, Set<Location>> entry : sets.entrySet()) {
-            for (Location variable : detail.getUnknownNeighbours()) {
-                if (entry.getValue().contains(variable)) {
-                    toMerge.push(entry.getKey());
-                    break;
-                }
-            }
-        }
-        if (toMerge.isEmpty()) {
-            Set<ConstraintDetails> newSet = new HashSet<>();
-            newSet.add(detail);
-            sets.put(newSet, detail.getUnknownNeighbours());
-        } else {
-            merge(toMerge, detail);
-        }
-    }
-
-    /*
-     * Removes all sets in the stack from the map, merges them, adds the
-     * new constraint to them and adds the merged set into the map.
-    */
-    private void merge(Stack<Set<ConstraintDetails>> toMerge, ConstraintDetails detail) {
-        Set<ConstraintDetails> keySet = new HashSet<>();
-        Set<Location> valueSet = new HashSet<>();
-        while (!toMerge.isEmpty()) {
-            Set<ConstraintDetails> temp = toMerge.pop();
-            valueSet.addAll(sets.get(temp));
-            keySet.addAll(temp);
-            sets.remove(temp);
-        }
-        keySet.add(detail);
-        valueSet.addAll(detail.getUnknownNeighbours());
-        sets.put(keySet, valueSet);
-    }
 }
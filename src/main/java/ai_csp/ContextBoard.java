@@ -5,135 +5,257 @@ import java.util.*;
 
 /*
 * The board from the context of the agent.
+* Squares are cell ids of the grid, sets of squares are BitSets indexed by id.
+* After every update, the constraints that changed are checked against the
+* PatternTable together with each constraint they overlap, and then reduced with
+* the ReductionEngine until nothing new comes out. The squares that pairwise
+* reasoning decides never have to wait for a search.
 */
 public class ContextBoard {
     public static final byte UNKNOWN = -1;  // Sentinel Value
     public static final byte BOMB_SENTINEL = 10;
 
-    private final Map<Location, ConstraintDetails> constraintLocations;
-    private final byte[][] board;
+    private final LocationGrid grid;
+    private final ConstraintDetails[] constraints;  // constraint of each revealed square, by id
+    private final BitSet constraintIds;             // ids that have a constraint
+    private final ConstraintComponents components;
+    private final byte[] board;
+    private final int[] newVariables;               // scratch for setNeighbour
 
-    private final Set<Location> containsBombSet;
-    private final Set<Location> removeSet;
+    private final BitSet containsBombSet;
+    private final BitSet removeSet;
+    private final BitSet touched;                   // constraints added or changed since the last pattern check
+    private final PatternTable patterns;
+    private final ReductionEngine reduction;
+    private final Metrics metrics;
+    private final List<BoardListener> listeners;
 
     // Initializes the board with all squares set as unknown.
-    public ContextBoard(int width, int height) {
-        this.containsBombSet = new HashSet<>();
-        this.removeSet = new HashSet<>();
-        this.constraintLocations = new HashMap<>();
-        board = new byte[width][height];
-        for (int i = 0; i < width; i++) {
-            for (int j = 0; j < height; j++) {
-                board[i][j] = UNKNOWN;
-            }
-        }
+    public ContextBoard(LocationGrid grid) {
+        this.grid = grid;
+        this.containsBombSet = new BitSet(grid.size());
+        this.removeSet = new BitSet(grid.size());
+        this.touched = new BitSet(grid.size());
+        this.patterns = PatternTable.get();
+        this.constraints = new ConstraintDetails[grid.size()];
+        this.constraintIds = new BitSet(grid.size());
+        this.reduction = new ReductionEngine(grid, this.constraints);
+        this.metrics = Metrics.get();
+        this.listeners = new ArrayList<>();
+        this.components = new ConstraintComponents(grid.size());
+        this.newVariables = new int[8];
+        this.board = new byte[grid.size()];
+        Arrays.fill(this.board, UNKNOWN);
     }
 
     /*
-     * Update the knowledge. Place bomb at (x,y).
+     * Update the knowledge. Place bomb at id.
      * This variable will be eliminated from any constraint containing
      * this location along with a reduction of one bomb.
      * A helper method is used to investigate additional
      * simplification after receiving the neighboring constraint.
      *
-     * x coordinate
-     * y coordinate
-     * grid pre-allocated memory for all possible locations
+     * id cell id
      * moves the set of pending moves for the agent
      * bombs a set of location for the agent to mark on GUI
      */
-    public void setBombAt(int x, int y, LocationGrid grid, Set<Location> moves, Set<Location> bombs) {
-        board[x][y] = BOMB_SENTINEL;
-        bombs.add(grid.getVariable(x,y));
-        for (Location location : grid.getNeighbours(x,y)) {
+    public void setBombAt(int id, BitSet moves, BitSet bombs) {
+        this.board[id] = BOMB_SENTINEL;
+        for (BoardListener listener : this.listeners) listener.bombFound(id);
+        bombs.set(id);
+        for (int k = this.grid.neighbourStart(id); k < this.grid.neighbourEnd(id); k++) {
             ConstraintDetails detail;
-            if ((detail = constraintLocations.get(location)) != null) {
+            int location = this.grid.neighbour(k);
+            if ((detail = this.constraints[location]) != null) {
                 detail.decrementNeighbourBombs();
-                detail.removeVariable(grid.getVariable(x, y));
-                storeSimplifications(detail, location, moves);
+                detail.removeVariable(id);
+                this.components.changed(location);
+                this.touched.set(location);
+                storeSimplifications(detail, moves);
             }
         }
     }
 
     // Same as setBombAt but empties temp sets when it's done.
-    public void manualSetBombAt(int x, int y, LocationGrid grid, Set<Location> moves, Set<Location> bombs) {
-        setBombAt(x, y, grid, moves, bombs);
-        emptyTempSets(grid, moves, bombs);
+    public void manualSetBombAt(int id, BitSet moves, BitSet bombs) {
+        setBombAt(id, moves, bombs);
+        emptyTempSets(moves, bombs);
     }
 
     /*
-     * Update knowledge. Coordinate (x,y) to have no bomb. Each neighbour is explored and each unknown is
+     * Update knowledge. Square id to have no bomb. Each neighbour is explored and each unknown is
      * made into a variable. The neighbour number is decreased for each neighbour bomb we already know
-     * of. If there is a constraint in any of the neighbouring location, (x,y) is removed from them
+     * of. If there is a constraint in any of the neighbouring location, id is removed from them
      * as a variable and the constraint is sent to a helper function for further simplification. If
      * the newly formed constraint is trivial, we add them to pending moves if =0 or temp bomb set
      * if all bombs, otherwise a new constraint is added to our system.
      *
-     * x coordinate
-     * y coordinate
+     * id cell id
      * neighbour number of neighbour bombs in the actual board
-     * grid pre-allocated location memory
      * moves set of pending moves
      * bombs set of bombs to mark in GUI
      */
-    public void setNeighbour(int x, int y, int neighbour, LocationGrid grid, Set<Location> moves, Set<Location> bombs) {
-        board[x][y] = (byte)neighbour;
-        Set<Location> newVariables = new HashSet<>();
-        for (Location location : grid.getNeighbours(x,y)) {
-            if (board[location.getX()][location.getY()] == UNKNOWN) {
-                newVariables.add(location);
-            } else if (board[location.getX()][location.getY()] == BOMB_SENTINEL) {
+    public void setNeighbour(int id, int neighbour, BitSet moves, BitSet bombs) {
+        this.board[id] = (byte)neighbour;
+        for (BoardListener listener : this.listeners) listener.revealed(id, neighbour);
+        int count = 0;
+        for (int k = this.grid.neighbourStart(id); k < this.grid.neighbourEnd(id); k++) {
+            int location = this.grid.neighbour(k);
+            if (this.board[location] == UNKNOWN) {
+                this.newVariables[count++] = location;
+            } else if (this.board[location] == BOMB_SENTINEL) {
                 neighbour--;
             } else {
                 ConstraintDetails detail;
-                if ((detail = constraintLocations.get(location)) != null) {
-                    detail.removeVariable(grid.getVariable(x, y));
-                    storeSimplifications(detail, location, moves);
+                if ((detail = this.constraints[location]) != null) {
+                    detail.removeVariable(id);
+                    this.components.changed(location);
+                    this.touched.set(location);
+                    storeSimplifications(detail, moves);
                 }
             }
         }
-        if (newVariables.size() == neighbour) {
-            containsBombSet.addAll(newVariables);
+        if (count == neighbour) {
+            for (int i = 0; i < count; i++) this.containsBombSet.set(this.newVariables[i]);
+        }
+        else if (neighbour == 0) {
+            for (int i = 0; i < count; i++) addMove(this.newVariables[i], moves, this.metrics.trivialMoves);
+        }
+        else {
+            ConstraintDetails detail = new ConstraintDetails(id, this.newVariables, count, neighbour);
+            this.constraints[id] = detail;
+            this.constraintIds.set(id);
+            this.components.added(detail);
+            this.touched.set(id);
         }
-        else if (neighbour == 0) moves.addAll(newVariables);
-        else this.constraintLocations.put(grid.getVariable(x, y), new ConstraintDetails(newVariables, neighbour));
 
         // Handle all temps sets
-        emptyTempSets(grid, moves, bombs);
+        emptyTempSets(moves, bombs);
+    }
+
+    // Registers a listener that is told about every revealed square and found bomb.
+    public void addListener(BoardListener listener) {
+        this.listeners.add(listener);
+    }
+
+    // all constraints, in order of the location of their square
+    public List<ConstraintDetails> getConstraints() {
+        List<ConstraintDetails> list = new ArrayList<>(this.constraintIds.cardinality());
+        for (int id = this.constraintIds.nextSetBit(0); id >= 0; id = this.constraintIds.nextSetBit(id + 1)) {
+            list.add(this.constraints[id]);
+        }
+        return list;
+    }
+
+    // the constraint formed by the square, null if there is none
+    public ConstraintDetails getConstraint(int id) {
+        return this.constraints[id];
+    }
+
+    // the independent constraint sets, kept up to date with the constraints
+    public Collection<ConstraintComponents.Component> getComponents() {
+        return this.components.getComponents();
     }
 
-    //  mapping from board location to the constraint it forms
-    public Map<Location, ConstraintDetails> getConstraintLocations() {
-        return this.constraintLocations;
+    // the square from the perspective of the agent: UNKNOWN, BOMB_SENTINEL or its number
+    public byte getCell(int id) {
+        return this.board[id];
     }
 
-    // the board from the perspective of the agent
-    public byte[][] getBoard() {
-        return this.board;
+    public LocationGrid getGrid() {
+        return this.grid;
     }
 
     /*
      * When we are done updating, we update our knowledge for all bombs we discovered. We do not
      * update the non-bombs since they will be updated when we pop them from the pending moves.
+     * Bombs found by the pattern table or the reduction change constraints again, so this repeats until there are none.
      *
-     * grid allocated memory for locations
      * moves pending moves
      * bombs unmarked bombs
      */
-    private void emptyTempSets(LocationGrid grid, Set<Location> moves, Set<Location> bombs) {
-        while (!containsBombSet.isEmpty()) {
-            Iterator<Location> it = containsBombSet.iterator();
-            Location bomb = it.next();
-            it.remove();
-            if (this.board[bomb.getX()][bomb.getY()] != ContextBoard.BOMB_SENTINEL) {
-                setBombAt(bomb.getX(), bomb.getY(), grid, moves, bombs);
+    private void emptyTempSets(BitSet moves, BitSet bombs) {
+        do {
+            int bomb;
+            while ((bomb = this.containsBombSet.nextSetBit(0)) >= 0) {
+                this.containsBombSet.clear(bomb);
+                if (this.board[bomb] != ContextBoard.BOMB_SENTINEL) {
+                    setBombAt(bomb, moves, bombs);
+                }
+            }
+            for (int pos = this.removeSet.nextSetBit(0); pos >= 0; pos = this.removeSet.nextSetBit(pos + 1)) {
+                ConstraintDetails detail = this.constraints[pos];
+                if (detail != null) {
+                    this.constraints[pos] = null;
+                    this.constraintIds.clear(pos);
+                    this.components.removed(detail);
+                }
             }
+            this.removeSet.clear();
+            // The table first, it is cheaper; the reduction once it has no more bombs
+            applyPatterns(moves);
+            if (this.containsBombSet.isEmpty()) {
+                this.reduction.propagate(this.touched, moves, this.containsBombSet);
+                this.touched.clear();
+            }
+        } while (!this.containsBombSet.isEmpty());
+    }
+
+    // Checks every touched constraint against the pattern table with each constraint it shares a square with.
+    private void applyPatterns(BitSet moves) {
+        for (int a = this.touched.nextSetBit(0); a >= 0; a = this.touched.nextSetBit(a + 1)) {
+            ConstraintDetails detail = this.constraints[a];
+            if (detail == null) continue;
+            // Constraints that share a square are neighbours of one of its variables
+            for (int i = 0; i < detail.size(); i++) {
+                int variable = detail.getUnknownNeighbour(i);
+                for (int k = this.grid.neighbourStart(variable); k < this.grid.neighbourEnd(variable); k++) {
+                    ConstraintDetails other = this.constraints[this.grid.neighbour(k)];
+                    if (other == null || other == detail || !isFirstShared(detail, other, i)) continue;
+                    applyPattern(detail, other, moves);
+                }
+            }
+        }
+    }
+
+    // true iff variable i of a is the first variable of a that b contains, so that every pair is checked once
+    private static boolean isFirstShared(ConstraintDetails a, ConstraintDetails b, int i) {
+        for (int j = 0; j < i; j++) {
+            if (b.contains(a.getUnknownNeighbour(j))) return false;
         }
-        for (Location pos : this.removeSet) {
-            this.constraintLocations.remove(pos);
+        return true;
+    }
+
+    // Looks up the regions of two overlapping constraints and stores the squares that they decide.
+    private void applyPattern(ConstraintDetails a, ConstraintDetails b, BitSet moves) {
+        int both = 0;
+        for (int i = 0; i < a.size(); i++) {
+            if (b.contains(a.getUnknownNeighbour(i))) both++;
+        }
+        byte entry = this.patterns.lookup(a.size() - both, both, b.size() - both, a.getNeighbourBombs(), b.getNeighbourBombs());
+        if (entry == 0 || entry == PatternTable.INVALID) return;
+        for (int i = 0; i < a.size(); i++) {
+            int variable = a.getUnknownNeighbour(i);
+            store(PatternTable.outcome(entry, b.contains(variable) ? 1 : 0), variable, moves);
+        }
+        for (int i = 0; i < b.size(); i++) {
+            int variable = b.getUnknownNeighbour(i);
+            if (!a.contains(variable)) store(PatternTable.outcome(entry, 2), variable, moves);
         }
     }
 
+    private void store(int outcome, int variable, BitSet moves) {
+        if (outcome == PatternTable.SAFE) addMove(variable, moves, this.metrics.patternMoves);
+        else if (outcome == PatternTable.BOMB) this.containsBombSet.set(variable);
+    }
+
+    // Adds a safe square to the pending moves, counted by what found it
+    private static void addMove(int variable, BitSet moves, Metrics.Counter source) {
+        if (moves.get(variable)) return;
+        moves.set(variable);
+        source.increment();
+    }
+
     /*
      * Any constraints that have a variable removed are passed to this method. It check if it has become
      * trivial or empty. If no bombs, we add all it's variables to the set of pending moves. If all bombs,
@@ -141,18 +263,17 @@ public class ContextBoard {
      * we add the location to a remove temp set, which we later use to remove the constraint.
      *
      * detail constraint
-     * location coordinates
      * moves set of pending moves
      */
-    private void storeSimplifications( ConstraintDetails detail, Location location, Set<Location> moves) {
+    private void storeSimplifications(ConstraintDetails detail, BitSet moves) {
         if (detail.isEmpty()) {
-            this.removeSet.add(location);
+            this.removeSet.set(detail.getLocation());
         } else if (detail.noBombs()) {
-            moves.addAll(detail.getUnknownNeighbours());
-            this.removeSet.add(location);
+            for (int i = 0; i < detail.size(); i++) addMove(detail.getUnknownNeighbour(i), moves, this.metrics.trivialMoves);
+            this.removeSet.set(detail.getLocation());
         } else if (detail.allBombs()) {
-            this.containsBombSet.addAll(detail.getUnknownNeighbours());
-            this.removeSet.add(location);
+            for (int i = 0; i < detail.size(); i++) this.containsBombSet.set(detail.getUnknownNeighbour(i));
+            this.removeSet.set(detail.getLocation());
         }
     }
 }
@@ -0,0 +1,38 @@
+package ai_csp;
+
+/*
+ *
+ * Point in time by which a move has to be found. Solvers check it cooperatively and stop
+ * with what they have so far, marked as not complete; NONE never expires.
+ *
+ */
+public final class Deadline {
+    public static final Deadline NONE = new Deadline(0, false);
+
+    private final long end;         // System.nanoTime() value
+    private final boolean bounded;
+
+    private Deadline(long end, boolean bounded) {
+        this.end = end;
+        this.bounded = bounded;
+    }
+
+    // A deadline the given number of nanoseconds from now, NONE if it isn't positive.
+    public static Deadline after(long nanos) {
+        return nanos > 0 ? new Deadline(System.nanoTime() + nanos, true) : NONE;
+    }
+
+    // A deadline after the given share of the time that is left, NONE stays NONE.
+    public Deadline share(double fraction) {
+        if (!this.bounded) return NONE;
+        return new Deadline(System.nanoTime() + (long) (Math.max(0, this.end - System.nanoTime()) * fraction), true);
+    }
+
+    public boolean isBounded() {
+        return this.bounded;
+    }
+
+    public boolean isExpired() {
+        return this.bounded && System.nanoTime() - this.end >= 0;
+    }
+}
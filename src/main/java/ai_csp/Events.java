@@ -0,0 +1,242 @@
+package ai_csp;
+
+import jdk.jfr.*;
+
+import java.util.BitSet;
+
+/*
+ *
+ * JDK Flight Recorder events of the agent, so that a recording of a batch run shows where
+ * every slow move spent its time. The events nest: a Move contains the Phases that found it,
+ * and a Phase contains the component Deductions or Counts it asked for. The end game Phase
+ * contains the ModelBuild and ModelQuery events of the IncrementalModel when it falls back to
+ * it; the pattern table generator's CSPModel writes the same events.
+ * Every event is begun where the work starts and finished with end(...), which only fills in
+ * and writes the fields if the event is enabled. When nothing is recording, begin and end
+ * do nothing and the event objects don't escape, so the cost is effectively zero.
+ * Record with: java -XX:StartFlightRecording=filename=agent.jfr,settings=profile ...
+ *
+ */
+final class Events {
+
+    private Events() {
+    }
+
+    @Name("ai_csp.Move")
+    @Label("Agent Move")
+    @Category({"Minesweeper", "Agent"})
+    @Description("One call of Agent.nextMove()")
+    @StackTrace(false)
+    static class Move extends Event {
+        @Label("X")
+        private int x;
+
+        @Label("Y")
+        private int y;
+
+        @Label("Pending")
+        @Description("The move was already known, no search was needed")
+        private boolean pending;
+
+        @Label("Degraded")
+        @Description("The move ran out of time and used estimates")
+        private boolean degraded;
+
+        @Label("Pending Left")
+        private int pendingLeft;
+
+        void end(Location location, boolean pending, boolean degraded, BitSet pendingMoves) {
+            end();
+            if (!shouldCommit()) return;
+            this.x = location.getX();
+            this.y = location.getY();
+            this.pending = pending;
+            this.degraded = degraded;
+            this.pendingLeft = pendingMoves.cardinality();
+            commit();
+        }
+    }
+
+    @Name("ai_csp.Phase")
+    @Label("Agent Phase")
+    @Category({"Minesweeper", "Agent"})
+    @Description("One phase of a move that wasn't pending: search, probability, end game or guess")
+    @StackTrace(false)
+    static class Phase extends Event {
+        @Label("Phase")
+        private String phase;
+
+        @Label("Components")
+        private int components;
+
+        @Label("Constraints")
+        private int constraints;
+
+        @Label("Safe")
+        @Description("Squares found to be safe")
+        private int safe;
+
+        @Label("Bombs")
+        @Description("Squares found to be bombs")
+        private int bombs;
+
+        void end(Agent.Phase phase, int components, int constraints, int safe, int bombs) {
+            end();
+            if (!shouldCommit()) return;
+            this.phase = phase.name();
+            this.components = components;
+            this.constraints = constraints;
+            this.safe = safe;
+            this.bombs = bombs;
+            commit();
+        }
+    }
+
+    @Name("ai_csp.Deduction")
+    @Label("Component Deduction")
+    @Category({"Minesweeper", "Solver"})
+    @Description("Forced squares of one component, by BitmaskSolver or from the cache")
+    @StackTrace(false)
+    static class Deduction extends Event {
+        @Label("Variables")
+        private int variables;
+
+        @Label("Constraints")
+        private int constraints;
+
+        @Label("Cached")
+        private boolean cached;
+
+        @Label("Safe")
+        private int safe;
+
+        @Label("Bombs")
+        private int bombs;
+
+        @Label("Consistent")
+        private boolean consistent;
+
+        void hit() {
+            this.cached = true;
+        }
+
+        void end(int variables, int constraints, BitmaskSolver.Deduction deduction) {
+            end();
+            if (!shouldCommit()) return;
+            this.variables = variables;
+            this.constraints = constraints;
+            this.safe = deduction.getSafe().cardinality();
+            this.bombs = deduction.getBombs().cardinality();
+            this.consistent = deduction.isConsistent();
+            commit();
+        }
+    }
+
+    @Name("ai_csp.Count")
+    @Label("Component Count")
+    @Category({"Minesweeper", "Solver"})
+    @Description("Solution counts of one component, by Probability or from the cache")
+    @StackTrace(false)
+    static class Count extends Event {
+        @Label("Variables")
+        private int variables;
+
+        @Label("Constraints")
+        private int constraints;
+
+        @Label("Cached")
+        private boolean cached;
+
+        @Label("Solutions")
+        @Description("Number of solutions, 0 if the constraints contradict each other; of samples if not exact")
+        private double solutions;
+
+        @Label("Exact")
+        @Description("All solutions were counted, not sampled or stopped by the deadline")
+        private boolean exact;
+
+        @Label("Samples")
+        @Description("Descents of SamplingProbability, 0 if not sampled")
+        private int samples;
+
+        @Label("Effective Samples")
+        @Description("Equally weighted samples that would give the same precision")
+        private double effectiveSamples;
+
+        void hit() {
+            this.cached = true;
+        }
+
+        // counts null if the constraints contradict each other
+        void end(int variables, int constraints, SolutionCounts counts) {
+            end();
+            if (!shouldCommit()) return;
+            this.variables = variables;
+            this.constraints = constraints;
+            this.solutions = counts == null ? 0.0 : counts.getTotal().doubleValue();
+            this.exact = counts != null && counts.isExact();
+            if (counts instanceof SampledCounts) {
+                this.samples = ((SampledCounts) counts).getSamples();
+                this.effectiveSamples = ((SampledCounts) counts).getEffectiveSamples();
+            }
+            commit();
+        }
+    }
+
+    @Name("ai_csp.ModelBuild")
+    @Label("Choco Model Build")
+    @Category({"Minesweeper", "Solver"})
+    @Description("Construction of the end game IncrementalModel, or of a CSPModel with its root propagation")
+    @StackTrace(false)
+    static class ModelBuild extends Event {
+        @Label("Variables")
+        private int variables;
+
+        @Label("Constraints")
+        private int constraints;
+
+        @Label("Contradiction")
+        @Description("Root propagation failed, always false for the IncrementalModel")
+        private boolean contradiction;
+
+        void end(int variables, int constraints, boolean contradiction) {
+            end();
+            if (!shouldCommit()) return;
+            this.variables = variables;
+            this.constraints = constraints;
+            this.contradiction = contradiction;
+            commit();
+        }
+    }
+
+    @Name("ai_csp.ModelQuery")
+    @Label("Choco Model Query")
+    @Category({"Minesweeper", "Solver"})
+    @Description("One hasBomb or hasNoBombs call of the IncrementalModel or a CSPModel")
+    @StackTrace(false)
+    static class ModelQuery extends Event {
+        @Label("Query")
+        private String query;
+
+        @Label("Location")
+        private int location;
+
+        @Label("Variables")
+        @Description("Variables of the model that are not fixed")
+        private int variables;
+
+        @Label("Forced")
+        @Description("The assumption had no solution")
+        private boolean forced;
+
+        void end(String query, int location, int variables, boolean forced) {
+            end();
+            if (!shouldCommit()) return;
+            this.query = query;
+            this.location = location;
+            this.variables = variables;
+            this.forced = forced;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package ai_csp;
+
+import java.math.BigInteger;
+import java.util.*;
+
+/*
+ *
+ * Exact solution counts of a constraint group by dynamic programming along its frontier.
+ * The variables are put in a line, breadth first from a variable at one end of the group,
+ * and assigned in that order. After the first t variables, a constraint is open if it has
+ * variables on both sides; everything the remaining variables need to know of the first t
+ * is the number of mines each open constraint already has. Such a tuple is the state, and
+ * the number of assignments leading to it is kept by number of bombs. Frontiers are thin
+ * bands, so there are few open constraints at any point: the time is exponential only in
+ * that width, where Probability enumerates every solution one by one. In the number of
+ * variables it is at most quadratic, because a state keeps one count for every number of
+ * bombs its assignments can have.
+ * The same is done backwards from the end, and for each variable the assignments before it
+ * that put a mine on it are combined with every completion after it, which gives the bomb
+ * counts of every variable by number of bombs.
+ *
+ */
+public class FrontierCounter implements ProbabilityEstimator {
+    public static final int MAX_WIDTH = 15;     // open constraints that fit into a state
+    public static final int MAX_STATE_BITS = 16; // log2 of the states from which a group is left to the other estimators
+    private static final double DP_SHARE = 0.5;  // of the time left that the counting may use before it falls back to sampling
+    private static final int BITS = 4;          // per open constraint in a state, sums are at most 8
+    private static final int MASK = (1 << BITS) - 1;
+
+    private final Collection<ConstraintDetails> detail;
+    private final int[] variables;              // cell ids
+    private final int[][] constraintVariables;  // variable indices of each constraint
+    private final int[] sums;
+    private final int[] order;                  // variable indices in the order they are assigned
+    private final int width;                    // most open constraints after any step
+    private final double stateBits;             // log2 of the most states any step can have
+    private final boolean contradiction;        // a constraint without variables needs mines
+    private final Deadline deadline;
+
+    // Transitions of step t, the slots of a state are the constraints open after the step
+    private final int[][] source;               // slot of the same constraint after step t - 1, -1 if it opens now
+    private final boolean[][] touches;          // the constraint of the slot has variable order[t]
+    private final int[][] remaining;            // its variables after order[t]
+    private final int[][] needs;                // its sum
+    private final int[][][] closing;            // slot after step t - 1 (-1 if none) and sum of each constraint closed by order[t]
+
+    /*
+     * Orders the variables and sets up the transitions, the counting itself is done by count().
+     *
+     * detail constraint group
+     * variables cell ids of all variables in the constraint group, sorted
+     * deadline time by which counting stops with an estimate, see count()
+     */
+    public FrontierCounter(Collection<ConstraintDetails> detail, int[] variables, Deadline deadline) {
+        int n = variables.length;
+        ConstraintDetails[] details = detail.toArray(new ConstraintDetails[0]);
+        this.detail = detail;
+        this.variables = variables;
+        this.deadline = deadline;
+        this.constraintVariables = new int[details.length][];
+        this.sums = new int[details.length];
+        int[] degree = new int[n];
+        boolean contradiction = false;
+        for (int c = 0; c < details.length; c++) {
+            this.constraintVariables[c] = new int[details[c].size()];
+            for (int i = 0; i < this.constraintVariables[c].length; i++) {
+                this.constraintVariables[c][i] = Arrays.binarySearch(variables, details[c].getUnknownNeighbour(i));
+                degree[this.constraintVariables[c][i]]++;
+            }
+            this.sums[c] = details[c].getNeighbourBombs();
+            if (details[c].size() == 0 && this.sums[c] != 0) contradiction = true;
+        }
+        this.contradiction = contradiction;
+        int[][] variableConstraints = new int[n][];
+        for (int v = 0; v < n; v++) variableConstraints[v] = new int[degree[v]];
+        for (int c = 0; c < details.length; c++) {
+            for (int v : this.constraintVariables[c]) variableConstraints[v][--degree[v]] = c;
+        }
+
+        // Breadth first from the variable a breadth first search reaches last, which is at an end of the band
+        int[] probe = breadthFirst(variableConstraints, 0);
+        this.order = breadthFirst(variableConstraints, n == 0 ? 0 : probe[n - 1]);
+        int[] position = new int[n];
+        for (int t = 0; t < n; t++) position[this.order[t]] = t;
+        int[] last = new int[details.length];
+        for (int c = 0; c < details.length; c++) {
+            for (int v : this.constraintVariables[c]) last[c] = Math.max(last[c], position[v]);
+        }
+
+        // A constraint is open from the step of its first variable until the one before its last
+        this.source = new int[n][];
+        this.touches = new boolean[n][];
+        this.remaining = new int[n][];
+        this.needs = new int[n][];
+        this.closing = new int[n][][];
+        int[] slot = new int[details.length];       // slot of each constraint after the previous step
+        Arrays.fill(slot, -1);
+        List<Integer> open = new ArrayList<>();
+        int widest = 0;
+        double stateBits = 0.0;
+        for (int t = 0; t < n; t++) {
+            int variable = this.order[t];
+            List<int[]> closed = new ArrayList<>();
+            for (int c : variableConstraints[variable]) {
+                if (last[c] == t) closed.add(new int[]{slot[c], this.sums[c]});
+                else if (slot[c] < 0) open.add(c);
+            }
+            int now = t;
+            open.removeIf(c -> last[c] == now);
+            int size = open.size();
+            this.source[t] = new int[size];
+            this.touches[t] = new boolean[size];
+            this.remaining[t] = new int[size];
+            this.needs[t] = new int[size];
+            this.closing[t] = closed.toArray(new int[0][]);
+            for (int j = 0; j < size; j++) {
+                int c = open.get(j);
+                this.source[t][j] = slot[c];
+                this.needs[t][j] = this.sums[c];
+                for (int v : this.constraintVariables[c]) {
+                    if (v == variable) this.touches[t][j] = true;
+                    else if (position[v] > t) this.remaining[t][j]++;
+                }
+            }
+            for (int c : variableConstraints[variable]) slot[c] = -1;
+            for (int j = 0; j < size; j++) slot[open.get(j)] = j;
+            widest = Math.max(widest, size);
+            // Mines an open constraint can have so far: at most its sum and its variables up to t, at least what the rest can't make up
+            double bits = 0.0;
+            for (int j = 0; j < size; j++) {
+                int c = open.get(j);
+                int assigned = this.constraintVariables[c].length - this.remaining[t][j];
+                int range = Math.min(this.sums[c], assigned) - Math.max(0, this.sums[c] - this.remaining[t][j]) + 1;
+                bits += Math.log(Math.max(1, range)) / Math.log(2);
+            }
+            stateBits = Math.max(stateBits, bits);
+        }
+        this.width = widest;
+        this.stateBits = stateBits;
+    }
+
+    // Largest number of open constraints, the number of states is exponential in it.
+    public int getWidth() {
+        return this.width;
+    }
+
+    // true iff the group is thin enough to be counted along its frontier, see MAX_STATE_BITS.
+    public boolean isThin() {
+        return this.width <= MAX_WIDTH && this.stateBits <= MAX_STATE_BITS;
+    }
+
+    /*
+     * Counts all solutions. The counting may take DP_SHARE of the time left; if that runs out, nothing
+     * of it can be used, and the group is sampled by SamplingProbability in the rest of the time instead.
+     *
+     * @return solution counts and bomb counts per variable, by number of bombs
+     */
+    @Override
+    public SolutionCounts count() {
+        int n = this.variables.length;
+        BigInteger[] solutions = zeros(n + 1);
+        BigInteger[][] cellBombs = new BigInteger[n + 1][];
+        for (int k = 0; k <= n; k++) cellBombs[k] = zeros(n);
+        if (this.contradiction) return new SolutionCounts(this.variables, cellBombs, solutions);
+        if (this.width > MAX_WIDTH) throw new IllegalStateException("Frontier too wide to count: " + this.width);
+
+        Deadline deadline = this.deadline.share(DP_SHARE);
+
+        // Forward: assignments of the first t + 1 variables by state, and the part of them with a mine on variable t
+        List<Map<Long, Poly>> forward = new ArrayList<>(n);
+        List<Map<Long, Poly>> mine = new ArrayList<>(n);
+        Map<Long, Poly> previous = Map.of(0L, Poly.ONE);
+        for (int t = 0; t < n; t++) {
+            if (deadline.isExpired()) return sample();
+            Map<Long, Sum> all = new HashMap<>();
+            Map<Long, Sum> mines = new HashMap<>();
+            for (Map.Entry<Long, Poly> entry : previous.entrySet()) {
+                for (int value = 0; value <= 1; value++) {
+                    long next = step(t, entry.getKey(), value);
+                    if (next < 0) continue;
+                    all.computeIfAbsent(next, key -> new Sum()).add(entry.getValue(), value);
+                    if (value == 1) mines.computeIfAbsent(next, key -> new Sum()).add(entry.getValue(), value);
+                }
+            }
+            previous = toPolys(all);
+            forward.add(previous);
+            mine.add(toPolys(mines));
+        }
+        if (n == 0 || forward.get(n - 1).isEmpty()) return new SolutionCounts(this.variables, cellBombs, solutions);
+        Poly total = forward.get(n - 1).get(0L);
+        for (int j = 0; j < total.coefficients.length; j++) solutions[total.low + j] = total.coefficients[j];
+
+        // Backward: completions of the variables after t by state, combined with the forward assignments with a mine on t
+        Map<Long, Poly> backward = Map.of(0L, Poly.ONE);
+        for (int t = n - 1; t >= 0; t--) {
+            if (deadline.isExpired()) return sample();
+            int variable = this.order[t];
+            for (Map.Entry<Long, Poly> entry : mine.get(t).entrySet()) {
+                Poly after = backward.get(entry.getKey());
+                if (after == null) continue;
+                entry.getValue().multiplyInto(after, cellBombs, variable);
+            }
+            if (t == 0) break;
+            Map<Long, Poly> before = new HashMap<>();
+            for (long state : forward.get(t - 1).keySet()) {
+                Sum sum = new Sum();
+                for (int value = 0; value <= 1; value++) {
+                    long next = step(t, state, value);
+                    Poly after = next < 0 ? null : backward.get(next);
+                    if (after != null) sum.add(after, value);
+                }
+                if (!sum.isEmpty()) before.put(state, sum.toPoly());
+            }
+            backward = before;
+            forward.set(t, null);
+            mine.set(t, null);
+        }
+        return new SolutionCounts(this.variables, cellBombs, solutions);
+    }
+
+    /*
+     * The state after step t, from the state after step t - 1 and the value of variable order[t].
+     *
+     * @return the new state, -1 if a constraint can no longer be satisfied
+     */
+    private long step(int t, long state, int value) {
+        for (int[] closed : this.closing[t]) {
+            int mines = closed[0] < 0 ? value : slot(state, closed[0]) + value;
+            if (mines != closed[1]) return -1;
+        }
+        int[] source = this.source[t];
+        long next = 0;
+        for (int j = 0; j < source.length; j++) {
+            int mines = source[j] < 0 ? 0 : slot(state, source[j]);
+            if (this.touches[t][j]) mines += value;
+            if (mines > this.needs[t][j] || mines + this.remaining[t][j] < this.needs[t][j]) return -1;
+            next |= (long) mines << (BITS * j);
+        }
+        return next;
+    }
+
+    // Estimated counts, for a count stopped by its share of the deadline
+    private SolutionCounts sample() {
+        Metrics.get().samplingCalls.increment();
+        return new SamplingProbability(this.detail, this.variables, this.deadline).count();
+    }
+
+    private static int slot(long state, int j) {
+        return (int) (state >>> (BITS * j)) & MASK;
+    }
+
+    // All variables, breadth first over the constraints from start and then from every variable not reached yet.
+    private int[] breadthFirst(int[][] variableConstraints, int start) {
+        int n = variableConstraints.length;
+        int[] order = new int[n];
+        boolean[] reached = new boolean[n];
+        int size = 0;
+        for (int i = 0; i < n; i++) {
+            int from = i == 0 ? start : i;
+            if (reached[from]) continue;
+            reached[from] = true;
+            int head = size;
+            order[size++] = from;
+            while (head < size) {
+                for (int c : variableConstraints[order[head++]]) {
+                    for (int v : this.constraintVariables[c]) {
+                        if (reached[v]) continue;
+                        reached[v] = true;
+                        order[size++] = v;
+                    }
+                }
+            }
+        }
+        return order;
+    }
+
+    private static BigInteger[] zeros(int length) {
+        BigInteger[] zeros = new BigInteger[length];
+        Arrays.fill(zeros, BigInteger.ZERO);
+        return zeros;
+    }
+
+    private static Map<Long, Poly> toPolys(Map<Long, Sum> sums) {
+        Map<Long, Poly> polys = new HashMap<>(2 * sums.size());
+        for (Map.Entry<Long, Sum> entry : sums.entrySet()) polys.put(entry.getKey(), entry.getValue().toPoly());
+        return polys;
+    }
+
+    // Counts by number of bombs, coefficients[j] for low + j bombs.
+    private static final class Poly {
+        private static final Poly ONE = new Poly(0, new BigInteger[]{BigInteger.ONE});
+
+        private final int low;
+        private final BigInteger[] coefficients;
+
+        private Poly(int low, BigInteger[] coefficients) {
+            this.low = low;
+            this.coefficients = coefficients;
+        }
+
+        // Adds the product with other, with a bomb on variable, to the bomb counts by number of bombs.
+        private void multiplyInto(Poly other, BigInteger[][] cellBombs, int variable) {
+            for (int i = 0; i < this.coefficients.length; i++) {
+                for (int j = 0; j < other.coefficients.length; j++) {
+                    int k = this.low + i + other.low + j;
+                    cellBombs[k][variable] = cellBombs[k][variable].add(this.coefficients[i].multiply(other.coefficients[j]));
+                }
+            }
+        }
+    }
+
+    // A Poly while it is summed up, only as long as the numbers of bombs added so far.
+    private static final class Sum {
+        private BigInteger[] coefficients;      // coefficients[j] for low + j bombs, null while empty
+        private int low;
+
+        // Adds poly shifted by the given number of bombs.
+        private void add(Poly poly, int shift) {
+            int from = poly.low + shift;
+            int to = from + poly.coefficients.length;
+            if (this.coefficients == null) {
+                this.coefficients = new BigInteger[to - from];
+                this.low = from;
+            } else if (from < this.low || to > this.low + this.coefficients.length) {
+                int low = Math.min(this.low, from);
+                BigInteger[] grown = new BigInteger[Math.max(this.low + this.coefficients.length, to) - low];
+                System.arraycopy(this.coefficients, 0, grown, this.low - low, this.coefficients.length);
+                this.coefficients = grown;
+                this.low = low;
+            }
+            for (int j = 0; j < poly.coefficients.length; j++) {
+                int k = from + j - this.low;
+                this.coefficients[k] = this.coefficients[k] == null ? poly.coefficients[j] : this.coefficients[k].add(poly.coefficients[j]);
+            }
+        }
+
+        private boolean isEmpty() {
+            return this.coefficients == null;
+        }
+
+        // The Poly takes over the array, the sum isn't used afterwards.
+        private Poly toPoly() {
+            for (int j = 0; j < this.coefficients.length; j++) {
+                if (this.coefficients[j] == null) this.coefficients[j] = BigInteger.ZERO;
+            }
+            return new Poly(this.low, this.coefficients);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package ai_csp;
+
+import java.math.BigInteger;
+import java.util.*;
+
+/*
+ *
+ * Exact bomb probabilities for every unknown square, combined from the solution
+ * histograms of the independent constraint sets. A choice of solutions with s
+ * bombs in total leaves bombsLeft - s bombs for the U unconstrained squares, which
+ * can be placed in C(U, bombsLeft - s) ways. The histograms are convolved with each
+ * other and weighted by these binomials, which is polynomial in the size of the
+ * histograms. No model over all unknown squares has to be enumerated.
+ *
+ */
+public class GlobalProbability {
+    private final List<SolutionCounts> components;
+    private final int[] unconstrained;          // cell ids
+    private final BigInteger[][] weights;       // weights[j][k]: global weight of a solution of set j with k bombs
+    private final BigInteger total;             // number of global solutions
+    private final BigInteger unconstrainedBombs; // global solutions with a bomb on one given unconstrained square
+    private final boolean exact;
+
+    /*
+     * components solution counts of every constraint set
+     * unconstrained cell ids of the unknown squares that are in no constraint
+     * bombsLeft bombs that are not found yet
+     */
+    public GlobalProbability(List<SolutionCounts> components, int[] unconstrained, int bombsLeft) {
+        this(components, unconstrained, bombsLeft, true);
+    }
+
+    // Same as above, exact false if the sets or squares given are only an estimate of the board.
+    public GlobalProbability(List<SolutionCounts> components, int[] unconstrained, int bombsLeft, boolean exact) {
+        for (SolutionCounts counts : components) exact &= counts.isExact();
+        this.exact = exact;
+        this.components = components;
+        this.unconstrained = unconstrained;
+        int m = components.size();
+        int u = unconstrained.length;
+
+        // prefix[j]: histogram of sets 0..j-1 together, suffix[j]: of sets j..m-1
+        BigInteger[][] prefix = new BigInteger[m + 1][];
+        BigInteger[][] suffix = new BigInteger[m + 1][];
+        prefix[0] = new BigInteger[]{BigInteger.ONE};
+        suffix[m] = new BigInteger[]{BigInteger.ONE};
+        for (int j = 0; j < m; j++) prefix[j + 1] = convolve(prefix[j], components.get(j).getSolutions());
+        for (int j = m - 1; j >= 0; j--) suffix[j] = convolve(components.get(j).getSolutions(), suffix[j + 1]);
+        BigInteger[] all = prefix[m];
+
+        // outside[r]: ways to place r bombs on the unconstrained squares
+        BigInteger[] outside = binomials(u, bombsLeft - (all.length - 1), bombsLeft);
+
+        BigInteger sum = BigInteger.ZERO;
+        BigInteger bombsOutside = BigInteger.ZERO;
+        for (int s = 0; s < all.length; s++) {
+            BigInteger ways = outsideWays(outside, bombsLeft, bombsLeft - s);
+            sum = sum.add(all[s].multiply(ways));
+            // C(U-1, r-1) = C(U, r) * r / U
+            if (u > 0) bombsOutside = bombsOutside.add(all[s].multiply(ways).multiply(BigInteger.valueOf(bombsLeft - s)).divide(BigInteger.valueOf(u)));
+        }
+        this.total = sum;
+        this.unconstrainedBombs = bombsOutside;
+
+        this.weights = new BigInteger[m][];
+        for (int j = 0; j < m; j++) {
+            BigInteger[] others = convolve(prefix[j], suffix[j + 1]);
+            int size = components.get(j).getSolutions().length;
+            this.weights[j] = new BigInteger[size];
+            for (int k = 0; k < size; k++) {
+                BigInteger weight = BigInteger.ZERO;
+                for (int s = 0; s < others.length; s++) {
+                    weight = weight.add(others[s].multiply(outsideWays(outside, bombsLeft, bombsLeft - k - s)));
+                }
+                this.weights[j][k] = weight;
+            }
+        }
+    }
+
+    public int[] getUnconstrained() {
+        return this.unconstrained;
+    }
+
+    // Solution counts of the constraint sets, in the order they were given.
+    public List<SolutionCounts> getComponents() {
+        return this.components;
+    }
+
+    // Bomb probability in percent of variable i of set j.
+    public double getProbability(int j, int i) {
+        return SolutionCounts.percent(bombWeight(j, i), this.total);
+    }
+
+    /*
+     * Half width in percent of the 95% confidence interval of getProbability(j, i), 0 if set j was
+     * counted exactly. Only the sampling of set j is in it: the weights it gets from the other sets
+     * are taken as they are.
+     */
+    public double getHalfWidth(int j, int i) {
+        SolutionCounts counts = this.components.get(j);
+        if (!(counts instanceof SampledCounts)) return 0.0;
+        return ((SampledCounts) counts).getHalfWidth(i, relative(this.weights[j]), getProbability(j, i));
+    }
+
+    // Bomb probability in percent of any unconstrained square.
+    public double getUnconstrainedProbability() {
+        return SolutionCounts.percent(this.unconstrainedBombs, this.total);
+    }
+
+    // true iff the probabilities are exact, only then are squares forced
+    public boolean isExact() {
+        return this.exact;
+    }
+
+    // Cell ids of the squares without a bomb in every global solution.
+    public BitSet getSafe() {
+        return forced(false);
+    }
+
+    // Cell ids of the squares with a bomb in every global solution.
+    public BitSet getBombs() {
+        return forced(true);
+    }
+
+    private BitSet forced(boolean bomb) {
+        BitSet forced = new BitSet();
+        // Counts of part of the solutions can't prove that a square is always safe or a bomb
+        if (this.total.signum() == 0 || !this.exact) return forced;
+        BigInteger target = bomb ? this.total : BigInteger.ZERO;
+        for (int j = 0; j < this.components.size(); j++) {
+            int[] variables = this.components.get(j).getVariables();
+            for (int i = 0; i < variables.length; i++) {
+                if (bombWeight(j, i).equals(target)) forced.set(variables[i]);
+            }
+        }
+        if (this.unconstrained.length > 0 && this.unconstrainedBombs.equals(target)) {
+            for (int id : this.unconstrained) forced.set(id);
+        }
+        return forced;
+    }
+
+    // Global solutions with a bomb on variable i of set j.
+    private BigInteger bombWeight(int j, int i) {
+        SolutionCounts counts = this.components.get(j);
+        BigInteger sum = BigInteger.ZERO;
+        for (int k = 0; k < this.weights[j].length; k++) {
+            sum = sum.add(counts.getCellBombs(k, i).multiply(this.weights[j][k]));
+        }
+        return sum;
+    }
+
+    // The weights as doubles, relative to the largest one, which may be too large for a double itself.
+    private static double[] relative(BigInteger[] weights) {
+        int bits = 0;
+        for (BigInteger weight : weights) bits = Math.max(bits, weight.bitLength());
+        int shift = Math.max(0, bits - 62);
+        double[] relative = new double[weights.length];
+        for (int k = 0; k < weights.length; k++) relative[k] = Math.scalb(weights[k].shiftRight(shift).doubleValue(), -(bits - shift));
+        return relative;
+    }
+
+    // C(u, r) from a table that starts at r = hi - table.length + 1, zero outside of it.
+    private static BigInteger outsideWays(BigInteger[] table, int hi, int r) {
+        int index = r - (hi - table.length + 1);
+        return index < 0 || index >= table.length ? BigInteger.ZERO : table[index];
+    }
+
+    // Binomials C(n, r) for r = lo..hi, zero for r < 0 or r > n.
+    private static BigInteger[] binomials(int n, int lo, int hi) {
+        BigInteger[] table = new BigInteger[Math.max(0, hi - lo + 1)];
+        Arrays.fill(table, BigInteger.ZERO);
+        int first = Math.max(0, lo);
+        if (first > Math.min(n, hi)) return table;
+        BigInteger c = BigInteger.ONE;
+        for (int i = 1; i <= Math.min(first, n - first); i++) {
+            c = c.multiply(BigInteger.valueOf(n - i + 1)).divide(BigInteger.valueOf(i));
+        }
+        for (int r = first; r <= Math.min(n, hi); r++) {
+            table[r - lo] = c;
+            c = c.multiply(BigInteger.valueOf(n - r)).divide(BigInteger.valueOf(r + 1));
+        }
+        return table;
+    }
+
+    private static BigInteger[] convolve(BigInteger[] a, BigInteger[] b) {
+        BigInteger[] result = new BigInteger[a.length + b.length - 1];
+        Arrays.fill(result, BigInteger.ZERO);
+        for (int i = 0; i < a.length; i++) {
+            if (a[i].signum() == 0) continue;
+            for (int j = 0; j < b.length; j++) result[i + j] = result[i + j].add(a[i].multiply(b[j]));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,210 @@
+package ai_csp;
+
+import org.chocosolver.solver.Cause;
+import org.chocosolver.solver.Model;
+import org.chocosolver.solver.Solution;
+import org.chocosolver.solver.constraints.Constraint;
+import org.chocosolver.solver.exception.ContradictionException;
+import org.chocosolver.solver.variables.IntVar;
+
+import java.util.*;
+
+/*
+ *
+ * A Choco model of the whole board that lives as long as the agent. It is built
+ * once from the ContextBoard and then kept up to date through BoardListener:
+ * a revealed square posts the sum constraint of its neighbours, and a square
+ * that becomes known is fixed to 0 or 1. A sum constraint is unposted when all
+ * of its variables are fixed. The sum over all variables is the number of bombs
+ * that were unknown when the model was built, so it never has to change.
+ * The cost of a move is therefore the size of the change, not of the board.
+ * The agent only asks it when the histograms are estimates or don't describe the board, see
+ * Agent.endGameSearch.
+ *
+ */
+public class IncrementalModel implements BoardListener {
+
+    private final ContextBoard board;
+    private final LocationGrid grid;
+    private final int totalBombs;
+
+    private Model model;
+    private IntVar[] vars;                          // by cell id, null for squares known when the model was built
+    private BitSet fixed;
+    private int unfixed;                            // variables that are not fixed yet
+    private boolean contradicted;                   // a fixed value was outside the domain of its variable
+    private final Map<Integer, Constraint> sums;    // posted sum constraint of a revealed square
+    private final Map<Integer, Integer> open;       // its number of variables that are not fixed
+    private Deadline deadline = Deadline.NONE;
+
+    public IncrementalModel(ContextBoard board, int totalBombs) {
+        this.board = board;
+        this.grid = board.getGrid();
+        this.totalBombs = totalBombs;
+        this.sums = new HashMap<>();
+        this.open = new HashMap<>();
+    }
+
+    public boolean isAttached() {
+        return this.model != null;
+    }
+
+    /*
+     * Builds the model from the current knowledge. Every unknown square becomes a variable,
+     * every revealed square with unknown neighbours a sum constraint, and the sum of all
+     * variables is the number of bombs not found yet.
+     */
+    public void attach() {
+        Events.ModelBuild event = new Events.ModelBuild();
+        event.begin();
+        this.model = new Model();
+        this.vars = new IntVar[this.grid.size()];
+        this.fixed = new BitSet(this.grid.size());
+
+        List<IntVar> all = new ArrayList<>();
+        int bombsRemaining = this.totalBombs;
+        for (int id = 0; id < this.grid.size(); id++) {
+            byte cell = this.board.getCell(id);
+            if (cell == ContextBoard.UNKNOWN) {
+                this.vars[id] = this.model.intVar(String.valueOf(id), 0, 1);
+                all.add(this.vars[id]);
+            } else if (cell == ContextBoard.BOMB_SENTINEL) {
+                bombsRemaining--;
+            }
+        }
+        this.model.sum(all.toArray(new IntVar[0]), "=", bombsRemaining).post();
+
+        for (int id = 0; id < this.grid.size(); id++) {
+            byte cell = this.board.getCell(id);
+            if (cell != ContextBoard.UNKNOWN && cell != ContextBoard.BOMB_SENTINEL) postSum(id, cell);
+        }
+        this.unfixed = all.size();
+        event.end(all.size(), this.model.getNbCstrs(), false);
+    }
+
+    @Override
+    public void revealed(int id, int neighbour) {
+        if (!isAttached()) return;
+        fix(id, 0);
+        postSum(id, neighbour);
+    }
+
+    @Override
+    public void bombFound(int id) {
+        if (!isAttached()) return;
+        fix(id, 1);
+    }
+
+    // Queries that run past the deadline give up and report nothing forced
+    public void setDeadline(Deadline deadline) {
+        this.deadline = deadline;
+    }
+
+    // Cell ids of all squares whose value is not fixed yet
+    public BitSet getVariables() {
+        BitSet variables = new BitSet(this.grid.size());
+        for (int id = 0; id < this.vars.length; id++) {
+            if (this.vars[id] != null && !this.fixed.get(id)) variables.set(id);
+        }
+        return variables;
+    }
+
+    // true iff there is at least one solution for the current knowledge, or the deadline passed first.
+    public boolean isConsistent() {
+        if (this.contradicted) return false;
+        Solution sol = findSolution();
+        boolean stopped = this.model.getSolver().isStopCriterionMet();
+        this.model.getSolver().hardReset();
+        return sol != null || stopped;
+    }
+
+    // A location does not contain a bomb, check if it leads to a contradiction. If so, it must contain a bomb.
+    public boolean hasBomb(int location) {
+        Events.ModelQuery event = new Events.ModelQuery();
+        event.begin();
+        boolean forced = containsContradiction(this.model.arithm(this.vars[location], "=", 0));
+        event.end("hasBomb", location, this.unfixed, forced);
+        return forced;
+    }
+
+    // A location contains a bomb, check if it leads to a contradiction. If so, it must not contain a bomb.
+    public boolean hasNoBombs(int location) {
+        Events.ModelQuery event = new Events.ModelQuery();
+        event.begin();
+        boolean forced = containsContradiction(this.model.arithm(this.vars[location], "=", 1));
+        event.end("hasNoBombs", location, this.unfixed, forced);
+        return forced;
+    }
+
+    // Same as CSPModel, the assumption is removed again afterwards. A search stopped by the deadline proves nothing.
+    private boolean containsContradiction(Constraint assumption) {
+        Metrics.get().chocoCalls.increment();
+        this.model.getEnvironment().worldPush();
+        this.model.post(assumption);
+        Solution sol = findSolution();
+        boolean stopped = this.model.getSolver().isStopCriterionMet();
+        this.model.getEnvironment().worldPop();
+        this.model.unpost(assumption);
+        this.model.getSolver().hardReset();
+        return sol == null && !stopped;
+    }
+
+    // Searches until the deadline of the move, the criterion is set again for every query
+    private Solution findSolution() {
+        Deadline deadline = this.deadline;
+        this.model.getSolver().removeAllStopCriteria();
+        if (deadline.isBounded()) this.model.getSolver().addStopCriterion(deadline::isExpired);
+        return this.model.getSolver().findSolution();
+    }
+
+    /*
+     * Posts sum(variables around id) = neighbour. Neighbours that were known bombs when the
+     * model was built are not variables, so they are subtracted from the sum instead.
+     */
+    private void postSum(int id, int neighbour) {
+        List<IntVar> scope = new ArrayList<>();
+        int unfixed = 0;
+        for (int k = this.grid.neighbourStart(id); k < this.grid.neighbourEnd(id); k++) {
+            int location = this.grid.neighbour(k);
+            IntVar var = this.vars[location];
+            if (var != null) {
+                scope.add(var);
+                if (!this.fixed.get(location)) unfixed++;
+            } else if (this.board.getCell(location) == ContextBoard.BOMB_SENTINEL) {
+                neighbour--;
+            }
+        }
+        if (unfixed == 0) return;
+        Constraint sum = this.model.sum(scope.toArray(new IntVar[0]), "=", neighbour);
+        sum.post();
+        this.sums.put(id, sum);
+        this.open.put(id, unfixed);
+    }
+
+    /*
+     * Fixes the variable of id and unposts the sums that have no open variables left. The value is
+     * set on the domain at the root level instead of posting a constraint, so the model doesn't grow
+     * with every known square.
+     */
+    private void fix(int id, int value) {
+        if (this.vars[id] == null || this.fixed.get(id)) return;
+        try {
+            this.vars[id].instantiateTo(value, Cause.Null);
+        } catch (ContradictionException e) {
+            this.contradicted = true;
+        }
+        this.fixed.set(id);
+        this.unfixed--;
+        for (int k = this.grid.neighbourStart(id); k < this.grid.neighbourEnd(id); k++) {
+            int location = this.grid.neighbour(k);
+            Integer remaining = this.open.get(location);
+            if (remaining == null) continue;
+            if (remaining == 1) {
+                this.model.unpost(this.sums.remove(location));
+                this.open.remove(location);
+            } else {
+                this.open.put(location, remaining - 1);
+            }
+        }
+    }
+}
@@ -1,44 +1,88 @@
 package ai_csp;
 
-import java.util.ArrayList;
-import java.util.stream.IntStream;
-
 /*
  *
  * Allocation of all position for a given board. They
  * are then re-used for anything that uses positions.
+ * Inside the agent a square is an int id, y * width + x.
+ * The neighbours of every square are computed once, in a
+ * flat table: the neighbours of id are neighbour(k) for
+ * k = neighbourStart(id) .. neighbourEnd(id) - 1.
  *
  */
 public class LocationGrid {
 
-    private final Location[][] board;
+    private final int width;
+    private final int height;
+    private final Location[] locations;
+    private final int[] neighbourOffsets;
+    private final int[] neighbourTable;
 
-    // Constructs a 2d array of all possible locations.
+    // Constructs all possible locations and the neighbour table.
     public LocationGrid(int width, int height) {
-        // The IntStream.range() method is used to create a stream of integer values from 0 to width-1
-        // (exclusive) and another stream from 0 to height-1 (exclusive).
-        this.board = IntStream.range(0, width).mapToObj(x ->
-                        IntStream.range(0, height).mapToObj(y ->
-                                new Location(x, y)).toArray(Location[]::new)).
-                toArray(Location[][]::new);
+        this.width = width;
+        this.height = height;
+        int size = width * height;
+        this.locations = new Location[size];
+        this.neighbourOffsets = new int[size + 1];
+        int[] table = new int[size * 8];
+        int count = 0;
+        for (int id = 0; id < size; id++) {
+            int x = id % width;
+            int y = id / width;
+            this.locations[id] = new Location(x, y);
+            this.neighbourOffsets[id] = count;
+            for (int j = y - 1; j < y + 2; j++) {
+                for (int i = x - 1; i < x + 2; i++) {
+                    if ((i != x || j != y) && j >= 0 && i >= 0 && i < width && j < height) {
+                        table[count++] = j * width + i;
+                    }
+                }
+            }
+        }
+        this.neighbourOffsets[size] = count;
+        this.neighbourTable = java.util.Arrays.copyOf(table, count);
+    }
+
+    public int getWidth() {
+        return this.width;
+    }
+
+    public int getHeight() {
+        return this.height;
+    }
+
+    // Number of squares
+    public int size() {
+        return this.locations.length;
+    }
+
+    public int getId(int x, int y) {
+        return y * this.width + x;
     }
 
     // Getter for allocated position, given coordinates.
     public Location getVariable(int x, int y) {
-        return this.board[x][y];
+        return this.locations[getId(x, y)];
     }
 
-    // Returns a list of all neighbours for a given location.
-    public ArrayList<Location> getNeighbours(int x, int y) {
-        ArrayList<Location> returnValue = new ArrayList<>();
-        for (int i = x - 1; i < x + 2; i++) {
-            for (int j = y - 1; j < y + 2; j++) {
-                if ((i != x || j != y) && j >= 0 && i >= 0 && i < this.board.length && j < this.board[0].length) {
-                    returnValue.add(this.board[i][j]);
-                }
-            }
-        }
-        return returnValue;
+    // Getter for allocated position, given its id.
+    public Location getVariable(int id) {
+        return this.locations[id];
     }
 
+    // First index of the neighbours of id in the table.
+    public int neighbourStart(int id) {
+        return this.neighbourOffsets[id];
+    }
+
+    // One past the last index of the neighbours of id in the table.
+    public int neighbourEnd(int id) {
+        return this.neighbourOffsets[id + 1];
+    }
+
+    // Neighbour id at index k of the table.
+    public int neighbour(int k) {
+        return this.neighbourTable[k];
+    }
 }
@@ -0,0 +1,268 @@
+package ai_csp;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ *
+ * Cumulative counters and histograms of every agent in the process. Updates are LongAdder and
+ * DoubleAdder increments, so agents on any number of threads never wait on each other; only
+ * reading them sums the stripes. A snapshot can be written as JSON or in the Prometheus text
+ * format, files are replaced atomically so a long batch run can be scraped while it goes.
+ * The metrics of the agent are fields of the single registry, get() returns it.
+ *
+ */
+public class Metrics {
+    // Upper bounds of the histogram buckets, a last +Inf bucket is added
+    private static final double[] SIZE_BUCKETS = {1, 2, 4, 8, 16, 32, 64, 128, 256, 512, 1024};
+    private static final double[] RISK_BUCKETS = {1, 2, 5, 10, 15, 20, 30, 40, 50, 100};
+    private static final double[] LATENCY_BUCKETS = {1e-5, 1e-4, 1e-3, 1e-2, 0.1, 1, 10};
+    private static final Metrics INSTANCE = new Metrics();     // after the buckets it uses
+
+    private final List<Metric> metrics;
+
+    // Safe squares added to the pending moves, by what found them
+    public final Counter trivialMoves;
+    public final Counter patternMoves;
+    public final Counter reductionMoves;
+    public final Counter searchMoves;
+    public final Counter endGameMoves;
+
+    public final Counter guesses;
+    public final Histogram guessRisk;           // bomb probability in percent of the guessed square
+    public final Histogram guessInterval;       // half width in percent of its 95% interval, for sampled squares
+
+    // Solver runs, cache hits are not counted
+    public final Counter bitmaskCalls;
+    public final Counter probabilityCalls;
+    public final Counter chocoCalls;
+    public final Counter samplingCalls;
+    public final Counter frontierCalls;
+
+    public final Counter contradictions;
+    public final Counter degradedMoves;         // moves that ran out of their time budget
+    public final Histogram componentSize;       // variables of every component that is searched
+    public final Histogram moveLatency;         // Agent.nextMove() in seconds
+
+    private Metrics() {
+        this.metrics = new ArrayList<>();
+        String moves = "ai_csp_moves_deduced_total";
+        String movesHelp = "Safe squares added to the pending moves";
+        this.trivialMoves = counter(moves, movesHelp, "source", "trivial");
+        this.patternMoves = counter(moves, movesHelp, "source", "pattern");
+        this.reductionMoves = counter(moves, movesHelp, "source", "reduction");
+        this.searchMoves = counter(moves, movesHelp, "source", "search");
+        this.endGameMoves = counter(moves, movesHelp, "source", "end_game");
+        this.guesses = counter("ai_csp_guesses_total", "Moves that were guesses", null, null);
+        this.guessRisk = histogram("ai_csp_guess_risk_percent", "Bomb probability of the guessed square", RISK_BUCKETS);
+        this.guessInterval = histogram("ai_csp_guess_interval_percent", "Half width of the 95% interval of a sampled guess", RISK_BUCKETS);
+        String calls = "ai_csp_solver_calls_total";
+        String callsHelp = "Solver runs that were not answered from the cache";
+        this.bitmaskCalls = counter(calls, callsHelp, "solver", "bitmask");
+        this.probabilityCalls = counter(calls, callsHelp, "solver", "probability");
+        this.chocoCalls = counter(calls, callsHelp, "solver", "choco");
+        this.samplingCalls = counter(calls, callsHelp, "solver", "sampling");
+        this.frontierCalls = counter(calls, callsHelp, "solver", "frontier");
+        this.contradictions = counter("ai_csp_contradictions_total", "Components whose constraints had no solution", null, null);
+        this.degradedMoves = counter("ai_csp_degraded_moves_total", "Moves that ran out of time and used estimates", null, null);
+        this.componentSize = histogram("ai_csp_component_variables", "Variables of the searched components", SIZE_BUCKETS);
+        this.moveLatency = histogram("ai_csp_move_latency_seconds", "Time of Agent.nextMove()", LATENCY_BUCKETS);
+    }
+
+    public static Metrics get() {
+        return INSTANCE;
+    }
+
+    private Counter counter(String name, String help, String label, String value) {
+        Counter counter = new Counter(name, help, label, value);
+        this.metrics.add(counter);
+        return counter;
+    }
+
+    private Histogram histogram(String name, String help, double[] bounds) {
+        Histogram histogram = new Histogram(name, help, bounds);
+        this.metrics.add(histogram);
+        return histogram;
+    }
+
+    // Current values of all metrics in the Prometheus text format.
+    public String toPrometheus() {
+        StringBuilder text = new StringBuilder();
+        String previous = null;
+        for (Metric metric : this.metrics) {
+            // Metrics that only differ by label share the HELP and TYPE lines
+            if (!metric.name.equals(previous)) {
+                text.append("# HELP ").append(metric.name).append(' ').append(metric.help).append('\n');
+                text.append("# TYPE ").append(metric.name).append(' ').append(metric.type()).append('\n');
+                previous = metric.name;
+            }
+            metric.appendPrometheus(text);
+        }
+        return text.toString();
+    }
+
+    // Current values of all metrics as a JSON array.
+    public String toJson() {
+        StringBuilder json = new StringBuilder("[\n");
+        for (int i = 0; i < this.metrics.size(); i++) {
+            Metric metric = this.metrics.get(i);
+            json.append("  {\"name\": \"").append(metric.name).append("\", \"type\": \"").append(metric.type()).append('"');
+            if (metric.label != null) {
+                json.append(", \"labels\": {\"").append(metric.label).append("\": \"").append(metric.value).append("\"}");
+            }
+            metric.appendJson(json);
+            json.append(i + 1 < this.metrics.size() ? "},\n" : "}\n");
+        }
+        return json.append("]\n").toString();
+    }
+
+    public void writePrometheus(Path file) throws IOException {
+        write(file, toPrometheus());
+    }
+
+    public void writeJson(Path file) throws IOException {
+        write(file, toJson());
+    }
+
+    // Writes next to the file and moves it in place, so a reader never sees half of it.
+    private static void write(Path file, String content) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(temp, content, StandardCharsets.UTF_8);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Formats a number the way Prometheus and JSON both read it.
+    private static String number(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) return Long.toString((long) value);
+        return Double.toString(value);
+    }
+
+    private abstract static class Metric {
+        final String name;
+        final String help;
+        final String label;     // single optional label
+        final String value;
+
+        private Metric(String name, String help, String label, String value) {
+            this.name = name;
+            this.help = help;
+            this.label = label;
+            this.value = value;
+        }
+
+        abstract String type();
+
+        abstract void appendPrometheus(StringBuilder text);
+
+        abstract void appendJson(StringBuilder json);
+
+        // {label="value"} with an extra label, or nothing without labels
+        String labels(String extra) {
+            StringJoiner joiner = new StringJoiner(",", "{", "}").setEmptyValue("");
+            if (this.label != null) joiner.add(this.label + "=\"" + this.value + "\"");
+            if (extra != null) joiner.add(extra);
+            return joiner.toString();
+        }
+    }
+
+    public static class Counter extends Metric {
+        private final LongAdder count = new LongAdder();
+
+        private Counter(String name, String help, String label, String value) {
+            super(name, help, label, value);
+        }
+
+        public void increment() {
+            this.count.increment();
+        }
+
+        public void add(long n) {
+            this.count.add(n);
+        }
+
+        public long get() {
+            return this.count.sum();
+        }
+
+        @Override
+        String type() {
+            return "counter";
+        }
+
+        @Override
+        void appendPrometheus(StringBuilder text) {
+            text.append(this.name).append(labels(null)).append(' ').append(get()).append('\n');
+        }
+
+        @Override
+        void appendJson(StringBuilder json) {
+            json.append(", \"value\": ").append(get());
+        }
+    }
+
+    // Counts per bucket, exported cumulative like Prometheus expects.
+    public static class Histogram extends Metric {
+        private final double[] bounds;
+        private final LongAdder[] buckets;      // one more than bounds, for +Inf
+        private final DoubleAdder sum = new DoubleAdder();
+
+        private Histogram(String name, String help, double[] bounds) {
+            super(name, help, null, null);
+            this.bounds = bounds;
+            this.buckets = new LongAdder[bounds.length + 1];
+            for (int i = 0; i < this.buckets.length; i++) this.buckets[i] = new LongAdder();
+        }
+
+        public void observe(double value) {
+            int bucket = 0;
+            while (bucket < this.bounds.length && value > this.bounds[bucket]) bucket++;
+            this.buckets[bucket].increment();
+            this.sum.add(value);
+        }
+
+        // Count of observations up to each bound and in total, read once so that they add up
+        private long[] cumulative() {
+            long[] counts = new long[this.buckets.length];
+            long total = 0;
+            for (int i = 0; i < counts.length; i++) {
+                total += this.buckets[i].sum();
+                counts[i] = total;
+            }
+            return counts;
+        }
+
+        @Override
+        String type() {
+            return "histogram";
+        }
+
+        @Override
+        void appendPrometheus(StringBuilder text) {
+            long[] counts = cumulative();
+            for (int i = 0; i < counts.length; i++) {
+                String le = i < this.bounds.length ? number(this.bounds[i]) : "+Inf";
+                text.append(this.name).append("_bucket").append(labels("le=\"" + le + "\"")).append(' ').append(counts[i]).append('\n');
+            }
+            text.append(this.name).append("_sum").append(labels(null)).append(' ').append(number(this.sum.sum())).append('\n');
+            text.append(this.name).append("_count").append(labels(null)).append(' ').append(counts[counts.length - 1]).append('\n');
+        }
+
+        @Override
+        void appendJson(StringBuilder json) {
+            long[] counts = cumulative();
+            json.append(", \"buckets\": [");
+            for (int i = 0; i < counts.length; i++) {
+                if (i > 0) json.append(", ");
+                String le = i < this.bounds.length ? number(this.bounds[i]) : "\"+Inf\"";
+                json.append("{\"le\": ").append(le).append(", \"count\": ").append(counts[i]).append('}');
+            }
+            json.append("], \"sum\": ").append(number(this.sum.sum())).append(", \"count\": ").append(counts[counts.length - 1]);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package ai_csp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ *
+ * Precompiled outcomes of two overlapping constraints, the local patterns of the
+ * board (1-1 at a wall, 1-2-1, 1-2 corners...). Two revealed squares at most two
+ * apart split their unknown neighbours into three regions: only next to A, next to
+ * both, only next to B. Since the squares of a region are interchangeable, every
+ * window of two numbers comes down to the sizes of the regions and the two sums,
+ * 9^5 entries. Each entry says for each region whether it is all safe, all bombs
+ * or open. The table is made offline by PatternTableGenerator with CSPModel and
+ * memory-mapped from the resource when it is a file.
+ *
+ */
+public class PatternTable {
+    public static final String RESOURCE = "pattern-table.bin";
+    public static final int MAGIC = 0x50415431;  // "PAT1"
+    public static final int SIDE = 9;            // 0..8 for each of the 5 dimensions
+    public static final int ENTRIES = SIDE * SIDE * SIDE * SIDE * SIDE;
+
+    // Outcome of a region, 2 bits each: A only, both, B only
+    public static final int OPEN = 0;
+    public static final int SAFE = 1;
+    public static final int BOMB = 2;
+    public static final byte INVALID = (byte) 0xFF;   // sizes that can't occur or sums without a solution
+
+    private static PatternTable instance;
+
+    private final ByteBuffer table;
+
+    private PatternTable(ByteBuffer buffer) {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != ENTRIES) throw new IllegalStateException("Bad pattern table");
+        this.table = buffer.position(8).slice();
+    }
+
+    // The table of the resource, loaded once and shared by all boards.
+    public static synchronized PatternTable get() {
+        if (instance == null) instance = new PatternTable(load());
+        return instance;
+    }
+
+    /*
+     * The entry for two constraints.
+     *
+     * onlyA squares next to A only
+     * both squares next to both
+     * onlyB squares next to B only
+     * sumA bombs around A
+     * sumB bombs around B
+     * @return the outcomes of the regions, or INVALID
+     */
+    public byte lookup(int onlyA, int both, int onlyB, int sumA, int sumB) {
+        return this.table.get(index(onlyA, both, onlyB, sumA, sumB));
+    }
+
+    public static int index(int onlyA, int both, int onlyB, int sumA, int sumB) {
+        return (((onlyA * SIDE + both) * SIDE + onlyB) * SIDE + sumA) * SIDE + sumB;
+    }
+
+    // Outcome of region 0 (A only), 1 (both) or 2 (B only) in an entry
+    public static int outcome(byte entry, int region) {
+        return (entry >> (2 * region)) & 3;
+    }
+
+    // Maps the resource when it is a plain file, else reads it into memory (e.g. from a jar).
+    private static ByteBuffer load() {
+        URL url = PatternTable.class.getResource(RESOURCE);
+        if (url == null) throw new IllegalStateException("Missing resource " + RESOURCE);
+        try {
+            if ("file".equals(url.getProtocol())) {
+                try (FileChannel channel = FileChannel.open(Path.of(url.toURI()), StandardOpenOption.READ)) {
+                    return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+            }
+            try (InputStream in = url.openStream()) {
+                return ByteBuffer.wrap(in.readAllBytes());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
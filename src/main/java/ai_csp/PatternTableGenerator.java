@@ -0,0 +1,93 @@
+package ai_csp;
+
+import org.chocosolver.solver.exception.ContradictionException;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/*
+ *
+ * Offline generator of the PatternTable resource. Every combination of region sizes
+ * and sums is built as two constraints over made up variables and asked to CSPModel,
+ * the same way the agent used to ask it: a region is safe if assuming a bomb
+ * in one of its squares has no solution, and the other way round.
+ *
+ * Usage: PatternTableGenerator [output file], by default src/main/resources/ai_csp/pattern-table.bin
+ *
+ */
+public class PatternTableGenerator {
+
+    private PatternTableGenerator() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path output = Path.of(args.length > 0 ? args[0] : "src/main/resources/ai_csp/" + PatternTable.RESOURCE);
+        byte[] table = generate();
+        Files.createDirectories(output.toAbsolutePath().getParent());
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(output))) {
+            out.writeInt(PatternTable.MAGIC);
+            out.writeInt(PatternTable.ENTRIES);
+            out.write(table);
+        }
+        int forced = 0;
+        for (byte entry : table) if (entry != PatternTable.INVALID && entry != 0) forced++;
+        System.out.println("Wrote " + output + ", " + forced + " entries with forced squares");
+    }
+
+    public static byte[] generate() {
+        int side = PatternTable.SIDE;
+        byte[] table = new byte[PatternTable.ENTRIES];
+        for (int onlyA = 0; onlyA < side; onlyA++) {
+            for (int both = 0; both < side; both++) {
+                for (int onlyB = 0; onlyB < side; onlyB++) {
+                    for (int sumA = 0; sumA < side; sumA++) {
+                        for (int sumB = 0; sumB < side; sumB++) {
+                            table[PatternTable.index(onlyA, both, onlyB, sumA, sumB)] = solve(onlyA, both, onlyB, sumA, sumB);
+                        }
+                    }
+                }
+            }
+        }
+        return table;
+    }
+
+    // The entry for given region sizes and sums, squares are numbered A only, both, B only.
+    private static byte solve(int onlyA, int both, int onlyB, int sumA, int sumB) {
+        int sizeA = onlyA + both;
+        int sizeB = both + onlyB;
+        if (both == 0 || sizeA > 8 || sizeB > 8 || sumA > sizeA || sumB > sizeB) return PatternTable.INVALID;
+
+        int[] a = new int[sizeA];
+        int[] b = new int[sizeB];
+        for (int i = 0; i < sizeA; i++) a[i] = i;
+        for (int i = 0; i < sizeB; i++) b[i] = onlyA + i;
+        int[] variables = new int[onlyA + both + onlyB];
+        for (int i = 0; i < variables.length; i++) variables[i] = i;
+        List<ConstraintDetails> constraints = List.of(
+                new ConstraintDetails(-1, a, sizeA, sumA),
+                new ConstraintDetails(-2, b, sizeB, sumB)
+        );
+
+        CSPModel model;
+        try {
+            model = new CSPModel(constraints, variables);
+        } catch (ContradictionException e) {
+            return PatternTable.INVALID;
+        }
+        int[] first = {0, onlyA, onlyA + both};
+        int[] sizes = {onlyA, both, onlyB};
+        int entry = 0;
+        for (int region = 0; region < 3; region++) {
+            if (sizes[region] == 0) continue;
+            boolean bomb = model.hasBomb(first[region]);
+            boolean safe = model.hasNoBombs(first[region]);
+            if (bomb && safe) return PatternTable.INVALID;
+            int outcome = safe ? PatternTable.SAFE : bomb ? PatternTable.BOMB : PatternTable.OPEN;
+            entry |= outcome << (2 * region);
+        }
+        return (byte) entry;
+    }
+}
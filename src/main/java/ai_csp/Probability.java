@@ -1,81 +1,211 @@
 package ai_csp;
 
 import org.chocosolver.solver.Model;
-import org.chocosolver.solver.Solution;
+import org.chocosolver.solver.Solver;
 import org.chocosolver.solver.exception.ContradictionException;
 import org.chocosolver.solver.variables.IntVar;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 // Sets up a Choco constraint model to find probability of variables.
-public class Probability {
+public class Probability implements ProbabilityEstimator {
+    private static final int SPLIT_MARK = 32;  // variables of a group before its search tree is split
+
     private final Model model;
-    private final Map<Location, IntVar> varMap;
+    private final Collection<ConstraintDetails> detail;
+    private final int[] variables;
+    private final IntVar[] vars;
+    private final Deadline deadline;
 
     /*
      * Set up Choco model for the constraint group.
      *
      * detail constraint group
-     * variables all variables in the constraint group
-     * varCollection a collection to store any variable for outside use
+     * variables cell ids of all variables in the constraint group, sorted
      * @throws ContradictionException should never happen
      */
-    public Probability(Set<ConstraintDetails> detail, Set<Location> variables, Set<Location> varCollection) throws ContradictionException {
+    public Probability(Collection<ConstraintDetails> detail, int[] variables) throws ContradictionException {
+        this(detail, variables, Deadline.NONE);
+    }
+
+    // Same as above, counting stops at the deadline with the solutions found so far.
+    public Probability(Collection<ConstraintDetails> detail, int[] variables, Deadline deadline) throws ContradictionException {
+        this(detail, variables, null, deadline);
+    }
+
+    // Same as above, with the variables that fixed is 0 or 1 for fixed to that value.
+    private Probability(Collection<ConstraintDetails> detail, int[] variables, byte[] fixed, Deadline deadline) throws ContradictionException {
         this.model = new Model();
-        this.varMap = new HashMap<>();
+        this.detail = detail;
+        this.variables = variables;
+        this.vars = new IntVar[variables.length];
+        this.deadline = deadline;
 
-        for (Location pos : variables) {
-            this.varMap.put(pos, this.model.intVar(pos.toString(), 0, 1));
-            varCollection.add(pos);
+        for (int i = 0; i < variables.length; i++) {
+            if (fixed != null && fixed[i] >= 0) this.vars[i] = this.model.intVar(String.valueOf(variables[i]), fixed[i], fixed[i]);
+            else this.vars[i] = this.model.intVar(String.valueOf(variables[i]), 0, 1);
         }
         for (ConstraintDetails c : detail) {
-            IntVar[] con = new IntVar[c.getUnknownNeighbours().size()];
-            int index = 0;
-            for (Location pos : c.getUnknownNeighbours()) {
-                con[index] = this.varMap.get(pos);
-                index++;
+            IntVar[] con = new IntVar[c.size()];
+            for (int index = 0; index < con.length; index++) {
+                con[index] = this.vars[Arrays.binarySearch(variables, c.getUnknownNeighbour(index))];
             }
             this.model.sum(con, "=", c.getNeighbourBombs()).post();
         }
         this.model.getSolver().propagate();
+        // Choco checks its stop criteria at every node of the search
+        if (deadline.isBounded()) this.model.getSolver().addStopCriterion(deadline::isExpired);
     }
 
     /*
-     * Updates a map for probabilities for all variables in a constraint group.
+     * Counts the solutions of the constraint group while the search runs. Solutions are not
+     * kept, so memory stays the same however many there are. One at a time, a long counter
+     * can not overflow in any feasible run; the result is handed out as BigIntegers.
+     * If the deadline stops the search, the counts of the solutions found so far are returned,
+     * marked as not exact.
      *
-     * probabilityMap a map to update
-     * @return minimum number of bombs for the constraint group
+     * @return solution counts and bomb counts per variable, by number of bombs
      */
-    public int getProbabilities(Map<Location, Double> probabilityMap) {
-        int minBombs = Integer.MAX_VALUE;
+    @Override
+    public SolutionCounts count() {
+        return enumerate().toSolutionCounts(this.variables);
+    }
 
-        // Initialize all probabilities as 0.0
-        for (Location position : this.varMap.keySet()) probabilityMap.put(position, 0.0);
+    /*
+     * Same counts as count(). The search tree of a large group is split on a few of its most
+     * constrained variables, and every subtree is counted by a ForkJoin task on a model of its
+     * own, since Choco models are not thread safe. Idle workers steal the subtrees. The number
+     * of splits is bounded by the parallelism, so there are at most 4 subtrees per worker.
+     */
+    @Override
+    public SolutionCounts countParallel() {
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        if (this.variables.length < Probability.SPLIT_MARK || parallelism < 2) return count();
 
-        // For a solution in the group of all solutions for the constraint group
-        for (Solution solution : this.model.getSolver().findAllSolutions()) {
+        // Split on the open variables that are in the most constraints
+        int[] degree = new int[this.variables.length];
+        for (ConstraintDetails c : this.detail) {
+            for (int index = 0; index < c.size(); index++) degree[Arrays.binarySearch(this.variables, c.getUnknownNeighbour(index))]++;
+        }
+        int depth = 34 - Integer.numberOfLeadingZeros(parallelism - 1);
+        int[] split = new int[depth];
+        int count = 0;
+        boolean[] chosen = new boolean[this.variables.length];
+        while (count < depth) {
+            int best = -1;
+            for (int i = 0; i < this.variables.length; i++) {
+                if (chosen[i] || this.vars[i].isInstantiated()) continue;
+                if (best < 0 || degree[i] > degree[best]) best = i;
+            }
+            if (best < 0) break;
+            chosen[best] = true;
+            split[count++] = best;
+        }
+
+        byte[] fixed = new byte[this.variables.length];
+        Arrays.fill(fixed, (byte) -1);
+        return new CountTask(this.detail, this.variables, this.deadline, fixed, Arrays.copyOf(split, count), 0).invoke().toSolutionCounts(this.variables);
+    }
+
+    // Streams all solutions of the model into counters.
+    private Counts enumerate() {
+        IntVar[] vars = this.vars;
+        Counts counts = new Counts(vars.length);
+        Solver solver = this.model.getSolver();
+        while (solver.solve()) {
             int bombsSolution = 0;
-            for (Location position : this.varMap.keySet()) {
-                int value = solution.getIntVal(this.varMap.get(position));
-                // If the position contains a bomb in this solution,
-                // we add one to the probability map
-                // The map works as a counter at this point.
-                if (value == 1) {
-                    probabilityMap.put(position, probabilityMap.get(position) + 1);
-                    bombsSolution++;
+            for (IntVar var : vars) bombsSolution += var.getValue();
+            for (int i = 0; i < vars.length; i++) {
+                if (vars[i].getValue() == 1) counts.cellBombs[bombsSolution][i]++;
+            }
+            counts.solutions[bombsSolution]++;
+        }
+        counts.complete = !solver.isStopCriterionMet();
+        return counts;
+    }
+
+    // Counts of the subtree where the split variables before next have the values in fixed.
+    private static class CountTask extends RecursiveTask<Counts> {
+        private static final long serialVersionUID = 1L;
+
+        private final Collection<ConstraintDetails> detail;
+        private final int[] variables;
+        private final Deadline deadline;
+        private final byte[] fixed;
+        private final int[] split;
+        private final int next;
+
+        private CountTask(Collection<ConstraintDetails> detail, int[] variables, Deadline deadline, byte[] fixed, int[] split, int next) {
+            this.detail = detail;
+            this.variables = variables;
+            this.deadline = deadline;
+            this.fixed = fixed;
+            this.split = split;
+            this.next = next;
+        }
+
+        @Override
+        protected Counts compute() {
+            if (this.next == this.split.length) {
+                if (this.deadline.isExpired()) {
+                    Counts none = new Counts(this.fixed.length);
+                    none.complete = false;
+                    return none;
+                }
+                try {
+                    return new Probability(this.detail, this.variables, this.fixed, this.deadline).enumerate();
+                } catch (ContradictionException e) {
+                    // No solution in this subtree
+                    return new Counts(this.fixed.length);
                 }
             }
-            if (minBombs > bombsSolution) minBombs = bombsSolution;
+            CountTask safe = child((byte) 0);
+            safe.fork();
+            Counts counts = child((byte) 1).compute();
+            counts.add(safe.join());
+            return counts;
         }
-        // Convert counter to probabilities.
-        long totalSolutions = this.model.getSolver().getSolutionCount();
-        for (Location position : this.varMap.keySet()) {
-            probabilityMap.put(position, 100.0 * probabilityMap.get(position) / totalSolutions);
+
+        private CountTask child(byte value) {
+            byte[] fixed = this.fixed.clone();
+            fixed[this.split[this.next]] = value;
+            return new CountTask(this.detail, this.variables, this.deadline, fixed, this.split, this.next + 1);
         }
-        return minBombs;
     }
 
+    // Solution counts by number of bombs while they are summed up.
+    private static class Counts {
+        private final long[][] cellBombs;
+        private final long[] solutions;
+        private boolean complete = true;        // false if the deadline stopped the search
+
+        private Counts(int variables) {
+            this.cellBombs = new long[variables + 1][variables];
+            this.solutions = new long[variables + 1];
+        }
+
+        private void add(Counts other) {
+            this.complete &= other.complete;
+            for (int k = 0; k < this.solutions.length; k++) {
+                this.solutions[k] += other.solutions[k];
+                for (int i = 0; i < this.cellBombs[k].length; i++) this.cellBombs[k][i] += other.cellBombs[k][i];
+            }
+        }
 
+        private SolutionCounts toSolutionCounts(int[] variables) {
+            BigInteger[][] bigCellBombs = new BigInteger[this.cellBombs.length][];
+            for (int k = 0; k < this.cellBombs.length; k++) bigCellBombs[k] = toBig(this.cellBombs[k]);
+            return new SolutionCounts(variables, bigCellBombs, toBig(this.solutions), this.complete);
+        }
+    }
+
+    static BigInteger[] toBig(long[] counts) {
+        BigInteger[] big = new BigInteger[counts.length];
+        for (int i = 0; i < counts.length; i++) big[i] = BigInteger.valueOf(counts[i]);
+        return big;
+    }
 }
@@ -0,0 +1,58 @@
+package ai_csp;
+
+import org.chocosolver.solver.exception.ContradictionException;
+
+import java.util.Collection;
+import java.util.Map;
+
+/*
+ *
+ * Bomb probabilities of a constraint group, from its solution counts by number of bombs.
+ * FrontierCounter counts exactly along a thin frontier, Probability counts every solution,
+ * which is exponential in the size of the group, and SamplingProbability estimates the
+ * counts from a sample of the solutions. of() picks one by the shape of the group.
+ *
+ */
+public interface ProbabilityEstimator {
+    int SAMPLING_MARK = 64;     // variables of a group from which it is sampled, and no longer kept by ComponentCache
+
+    /*
+     * Solution counts and bomb counts per variable, by number of bombs. Counts that are
+     * not exact are only proportional to the real ones, which is all GlobalProbability needs.
+     */
+    SolutionCounts count();
+
+    // Same counts, on more than one thread if the estimator can.
+    default SolutionCounts countParallel() {
+        return count();
+    }
+
+    /*
+     * Updates a map for probabilities for all variables in a constraint group.
+     *
+     * probabilityMap a map to update
+     * @return minimum number of bombs for the constraint group
+     */
+    default int getProbabilities(Map<Integer, Double> probabilityMap) {
+        SolutionCounts counts = count();
+        int[] positions = counts.getVariables();
+        for (int i = 0; i < positions.length; i++) probabilityMap.put(positions[i], counts.getProbability(i));
+        return counts.getMinBombs();
+    }
+
+    /*
+     * Counting along the frontier if the group is thin, else exact counting below SAMPLING_MARK
+     * variables and sampling from there on.
+     *
+     * detail constraint group
+     * variables cell ids of all variables in the constraint group, sorted
+     * deadline time by which counting stops with what it has
+     * @throws ContradictionException if the constraints contradict each other
+     */
+    static ProbabilityEstimator of(Collection<ConstraintDetails> detail, int[] variables, Deadline deadline) throws ContradictionException {
+        FrontierCounter frontier = new FrontierCounter(detail, variables, deadline);
+        if (frontier.isThin()) return frontier;
+        if (variables.length >= SAMPLING_MARK) return new SamplingProbability(detail, variables, deadline);
+        return new Probability(detail, variables, deadline);
+    }
+}
@@ -0,0 +1,315 @@
+package ai_csp;
+
+import java.util.*;
+
+/*
+ *
+ * Pairwise reasoning over the constraints of a ContextBoard, propagated to a fixpoint.
+ * Starting from the constraints that changed, every constraint is compared with each
+ * constraint that shares a variable with it:
+ *  - subset: if A is a subset of B, then B minus A has B.sum - A.sum bombs;
+ *  - overlap: the bombs in the shared squares are at least A.sum - |A only| and
+ *    B.sum - |B only| and at most both sums and the number of shared squares. When
+ *    the bounds meet, the three regions become constraints of their own; when they
+ *    make a region all bombs or all safe, that region is forced.
+ * Derived constraints are compared again, forced squares are taken out of every
+ * constraint that has them, and so on until nothing new comes out. The board's own
+ * constraints are copied as they are reached and never changed here; derived
+ * constraints only live for one propagation.
+ *
+ */
+public class ReductionEngine {
+    private static final int MAX_DERIVED = 1024;     // bound on the work of a single propagation
+
+    private final LocationGrid grid;
+    private final ConstraintDetails[] constraints;
+
+    // State of one propagation, indexed by cell id like ContextBoard.constraints
+    private final List<List<Reduced>> byVariable;    // constraints that contain a variable, null if none yet
+    private final BitSet indexed;                    // ids with a list in byVariable
+    private final Reduced[] loaded;                  // copy of the board constraint at a location
+    private final BitSet loadedIds;                  // ids with a copy in loaded
+    private final Map<Reduced, Reduced> known;       // all constraints by their variables, to skip duplicates
+    private final BitSet forced;                     // variables decided in this propagation
+    private final BitSet forcedBombs;                // those of them that are bombs
+    private final ArrayDeque<Reduced> queue;
+    private int derived;
+    private boolean contradiction;
+
+    /*
+     * grid neighbour tables of the board
+     * constraints constraint of each square of the board, by id
+     */
+    public ReductionEngine(LocationGrid grid, ConstraintDetails[] constraints) {
+        this.grid = grid;
+        this.constraints = constraints;
+        this.byVariable = new ArrayList<>(Collections.nCopies(grid.size(), null));
+        this.indexed = new BitSet(grid.size());
+        this.loaded = new Reduced[grid.size()];
+        this.loadedIds = new BitSet(grid.size());
+        this.known = new HashMap<>();
+        this.forced = new BitSet(grid.size());
+        this.forcedBombs = new BitSet(grid.size());
+        this.queue = new ArrayDeque<>();
+    }
+
+    /*
+     * Propagates from the given constraints until nothing new can be derived.
+     *
+     * touched locations of the constraints that were added or changed
+     * safe set to add the safe squares to
+     * bombs set to add the bombs to
+     */
+    public void propagate(BitSet touched, BitSet safe, BitSet bombs) {
+        this.derived = 0;
+        this.contradiction = false;
+        for (int location = touched.nextSetBit(0); location >= 0; location = touched.nextSetBit(location + 1)) {
+            if (this.constraints[location] != null) enqueue(load(location));
+        }
+        while (!this.queue.isEmpty() && !this.contradiction) {
+            Reduced x = this.queue.poll();
+            x.queued = false;
+            if (x.size == 0) continue;
+            if (x.sum == 0 || x.sum == x.size) {
+                int value = x.sum == 0 ? 0 : 1;
+                for (int variable : Arrays.copyOf(x.variables, x.size)) force(variable, value);
+                continue;
+            }
+            for (int i = 0; i < x.size && x.size > 0; i++) {
+                int variable = x.variables[i];
+                loadAround(variable);
+                for (Reduced y : new ArrayList<>(this.byVariable.get(variable))) {
+                    if (y != x && y.size > 0 && isFirstShared(x, y, i)) compare(x, y);
+                }
+            }
+        }
+        // Only a contradiction-free propagation is trusted; it can't happen with a correct board
+        if (!this.contradiction) {
+            for (int variable = this.forced.nextSetBit(0); variable >= 0; variable = this.forced.nextSetBit(variable + 1)) {
+                if (!this.forcedBombs.get(variable)) {
+                    if (!safe.get(variable)) Metrics.get().reductionMoves.increment();
+                    safe.set(variable);
+                }
+                else bombs.set(variable);
+            }
+        }
+        // Only the entries of this propagation are cleared, not the whole board
+        for (int id = this.indexed.nextSetBit(0); id >= 0; id = this.indexed.nextSetBit(id + 1)) this.byVariable.set(id, null);
+        for (int id = this.loadedIds.nextSetBit(0); id >= 0; id = this.loadedIds.nextSetBit(id + 1)) this.loaded[id] = null;
+        this.indexed.clear();
+        this.loadedIds.clear();
+        this.known.clear();
+        this.forced.clear();
+        this.forcedBombs.clear();
+        this.queue.clear();
+    }
+
+    // Subset and overlap rules for two constraints that share a variable.
+    private void compare(Reduced x, Reduced y) {
+        int shared = 0;
+        for (int i = 0; i < x.size; i++) {
+            if (y.contains(x.variables[i])) shared++;
+        }
+        int onlyX = x.size - shared;
+        int onlyY = y.size - shared;
+        if (onlyX == 0 && onlyY == 0) {
+            if (x.sum != y.sum) this.contradiction = true;
+        } else if (onlyX == 0) {
+            derive(difference(y, x), y.sum - x.sum);
+        } else if (onlyY == 0) {
+            derive(difference(x, y), x.sum - y.sum);
+        } else {
+            int low = Math.max(0, Math.max(x.sum - onlyX, y.sum - onlyY));
+            int high = Math.min(shared, Math.min(x.sum, y.sum));
+            if (low > high) {
+                this.contradiction = true;
+            } else if (low == high) {
+                derive(intersection(x, y), low);
+                derive(difference(x, y), x.sum - low);
+                derive(difference(y, x), y.sum - low);
+            } else {
+                // The bombs only next to x are x.sum - high .. x.sum - low
+                if (x.sum - high == onlyX || x.sum - low == 0) derive(difference(x, y), x.sum - low == 0 ? 0 : onlyX);
+                if (y.sum - high == onlyY || y.sum - low == 0) derive(difference(y, x), y.sum - low == 0 ? 0 : onlyY);
+            }
+        }
+    }
+
+    // Adds a new constraint over the variables, unless one with the same variables is known.
+    private void derive(int[] variables, int sum) {
+        if (variables.length == 0) return;
+        if (sum < 0 || sum > variables.length) {
+            this.contradiction = true;
+            return;
+        }
+        if (this.derived >= MAX_DERIVED) return;
+        Reduced reduced = new Reduced(variables, variables.length, sum);
+        if (!isNew(reduced)) return;
+        this.derived++;
+        index(reduced);
+        enqueue(reduced);
+    }
+
+    // Takes a decided variable out of every constraint that has it.
+    private void force(int variable, int value) {
+        if (this.forced.get(variable)) {
+            if (this.forcedBombs.get(variable) != (value == 1)) this.contradiction = true;
+            return;
+        }
+        this.forced.set(variable);
+        if (value == 1) this.forcedBombs.set(variable);
+        loadAround(variable);
+        List<Reduced> containing = this.byVariable.set(variable, null);
+        this.indexed.clear(variable);
+        for (Reduced reduced : containing) {
+            this.known.remove(reduced);
+            reduced.remove(variable, value);
+            if (reduced.sum < 0 || reduced.sum > reduced.size) this.contradiction = true;
+            // A constraint that became a duplicate is dropped, its twin is already in
+            if (reduced.size > 0 && !isNew(reduced)) reduced.kill(this.byVariable);
+            else enqueue(reduced);
+        }
+    }
+
+    // Copies the board constraints next to a variable, these are all that contain it.
+    private void loadAround(int variable) {
+        for (int k = this.grid.neighbourStart(variable); k < this.grid.neighbourEnd(variable); k++) {
+            int location = this.grid.neighbour(k);
+            if (this.constraints[location] != null) load(location);
+        }
+        listOf(variable);
+    }
+
+    // Constraints of this propagation that contain the variable, the list is made on first use.
+    private List<Reduced> listOf(int variable) {
+        List<Reduced> list = this.byVariable.get(variable);
+        if (list == null) {
+            list = new ArrayList<>();
+            this.byVariable.set(variable, list);
+            this.indexed.set(variable);
+        }
+        return list;
+    }
+
+    private Reduced load(int location) {
+        Reduced reduced = this.loaded[location];
+        if (reduced != null) return reduced;
+        ConstraintDetails detail = this.constraints[location];
+        int[] variables = detail.getUnknownNeighbours();
+        int sum = detail.getNeighbourBombs();
+        int size = 0;
+        for (int variable : variables) {
+            if (!this.forced.get(variable)) variables[size++] = variable;
+            else if (this.forcedBombs.get(variable)) sum--;
+        }
+        reduced = new Reduced(variables, size, sum);
+        this.loaded[location] = reduced;
+        this.loadedIds.set(location);
+        if (sum < 0 || sum > size) this.contradiction = true;
+        if (size > 0 && isNew(reduced)) {
+            index(reduced);
+            // Squares forced earlier in this propagation made it differ from the board
+            if (size < variables.length) enqueue(reduced);
+        } else {
+            reduced.size = 0;
+        }
+        return reduced;
+    }
+
+    // Registers a constraint, false if one with the same variables is already known.
+    private boolean isNew(Reduced reduced) {
+        Reduced twin = this.known.putIfAbsent(reduced, reduced);
+        if (twin == null) return true;
+        if (twin.sum != reduced.sum) this.contradiction = true;
+        return false;
+    }
+
+    private void index(Reduced reduced) {
+        for (int i = 0; i < reduced.size; i++) listOf(reduced.variables[i]).add(reduced);
+    }
+
+    private void enqueue(Reduced reduced) {
+        if (reduced.queued || reduced.size == 0) return;
+        reduced.queued = true;
+        this.queue.add(reduced);
+    }
+
+    // true iff variable i of x is the first variable of x that y contains, so that a pair is compared once per visit of x
+    private static boolean isFirstShared(Reduced x, Reduced y, int i) {
+        for (int j = 0; j < i; j++) {
+            if (y.contains(x.variables[j])) return false;
+        }
+        return true;
+    }
+
+    private static int[] difference(Reduced a, Reduced b) {
+        int[] result = new int[a.size];
+        int count = 0;
+        for (int i = 0; i < a.size; i++) {
+            if (!b.contains(a.variables[i])) result[count++] = a.variables[i];
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static int[] intersection(Reduced a, Reduced b) {
+        int[] result = new int[a.size];
+        int count = 0;
+        for (int i = 0; i < a.size; i++) {
+            if (b.contains(a.variables[i])) result[count++] = a.variables[i];
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    // A working copy of a constraint, equal to another one with the same variables.
+    private static class Reduced {
+        private final int[] variables;      // sorted, the first size are in use
+        private int size;
+        private int sum;
+        private boolean queued;
+
+        private Reduced(int[] variables, int size, int sum) {
+            this.variables = Arrays.copyOf(variables, size);
+            Arrays.sort(this.variables);
+            this.size = size;
+            this.sum = sum;
+        }
+
+        private boolean contains(int variable) {
+            for (int i = 0; i < this.size; i++) {
+                if (this.variables[i] == variable) return true;
+            }
+            return false;
+        }
+
+        private void remove(int variable, int value) {
+            int j = 0;
+            for (int i = 0; i < this.size; i++) {
+                if (this.variables[i] != variable) this.variables[j++] = this.variables[i];
+            }
+            this.size = j;
+            this.sum -= value;
+        }
+
+        // Drops the constraint from the index, it no longer takes part
+        private void kill(List<List<Reduced>> byVariable) {
+            for (int i = 0; i < this.size; i++) {
+                List<Reduced> list = byVariable.get(this.variables[i]);
+                if (list != null) list.removeIf(reduced -> reduced == this);
+            }
+            this.size = 0;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            Reduced other = (Reduced) o;
+            return this.size == other.size && Arrays.equals(this.variables, 0, this.size, other.variables, 0, other.size);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 1;
+            for (int i = 0; i < this.size; i++) hash = 31 * hash + this.variables[i];
+            return hash;
+        }
+    }
+}
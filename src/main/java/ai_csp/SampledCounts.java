@@ -0,0 +1,79 @@
+package ai_csp;
+
+import java.math.BigInteger;
+
+/*
+ * Solution counts estimated from a sample of the solutions, see SamplingProbability: the counts
+ * are the summed weights of the samples, an estimate of the real counts times the number of
+ * samples. The sums of the squared weights are kept by number of bombs, so that the 95% confidence
+ * interval of a bomb probability can be given for any weighting of the solutions by their number
+ * of bombs, the one of GlobalProbability as well as the plain one of getProbability.
+ */
+public class SampledCounts extends SolutionCounts {
+    private static final double Z_95 = 1.96;
+
+    private final int low;                      // fewest bombs of a sample, index 0 of the sums below
+    private final double[] weights;             // summed weights of the samples with low + k bombs, relative to the largest sample
+    private final double[] squares;             // their summed squares
+    private final double[][] squaredBombs;      // the squares of those with a bomb on each variable
+    private final int samples;
+    private final double effectiveSamples;
+    private final boolean complete;             // false if the deadline stopped the sampling
+
+    /*
+     * low, weights, squares and squaredBombs are empty if fewer than two samples are solutions,
+     * every interval is then 100%.
+     */
+    public SampledCounts(int[] variables, BigInteger[][] cellBombs, BigInteger[] solutions, int low, double[] weights,
+                         double[] squares, double[][] squaredBombs, int samples, double effectiveSamples, boolean complete) {
+        super(variables, cellBombs, solutions, false);
+        this.low = low;
+        this.weights = weights;
+        this.squares = squares;
+        this.squaredBombs = squaredBombs;
+        this.samples = samples;
+        this.effectiveSamples = effectiveSamples;
+        this.complete = complete;
+    }
+
+    // Half width in percent of the 95% confidence interval of getProbability(variable)
+    public double getHalfWidth(int variable) {
+        return getHalfWidth(variable, null, getProbability(variable));
+    }
+
+    /*
+     * Half width in percent of the 95% confidence interval of a probability that weights the solutions
+     * with k bombs by bombWeights[k]. The variance of a weighted mean p is the sum of w^2 (x - p)^2 over
+     * (sum of w)^2, summed here by number of bombs.
+     *
+     * variable index of the variable
+     * bombWeights weight by number of bombs, null for all 1
+     * probability the weighted probability in percent
+     */
+    public double getHalfWidth(int variable, double[] bombWeights, double probability) {
+        double p = probability / 100.0;
+        double sum = 0.0;
+        double variance = 0.0;
+        for (int k = 0; k < this.weights.length; k++) {
+            double weight = bombWeights == null ? 1.0 : bombWeights[this.low + k];
+            double bombs = this.squaredBombs[k][variable];
+            sum += weight * this.weights[k];
+            variance += weight * weight * (bombs * (1 - p) * (1 - p) + (this.squares[k] - bombs) * p * p);
+        }
+        return sum == 0.0 ? 100.0 : Math.min(100.0, 100.0 * Z_95 * Math.sqrt(variance) / sum);
+    }
+
+    public int getSamples() {
+        return this.samples;
+    }
+
+    // Number of equally weighted samples that would give the same precision
+    public double getEffectiveSamples() {
+        return this.effectiveSamples;
+    }
+
+    @Override
+    public boolean isComplete() {
+        return this.complete;
+    }
+}
@@ -0,0 +1,253 @@
+package ai_csp;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.SplittableRandom;
+
+/*
+ *
+ * Estimates the solution counts of a constraint group too large to enumerate, by importance
+ * sampling. A sample is one random descent of the search tree of Probability: variables are
+ * taken breadth first over the constraints, every value is tried with the sum constraints
+ * propagated like in BitmaskSolver, and one of the values that are still possible is picked at
+ * random. A descent that ends in a solution after b free choices had the probability 2^-b, so
+ * weighting it with 2^b makes the summed weights an unbiased estimate of the solution counts,
+ * times the number of samples (Knuth's estimator). Descents that run into a contradiction
+ * weigh 0. Samples are independent, so a Markov chain's mixing problems on long frontiers,
+ * where solutions differ in every variable, don't come up.
+ * The 95% confidence interval of every probability is the one of a weighted mean. The random
+ * stream is seeded by the group, so the same group always gets the same estimate.
+ *
+ */
+public class SamplingProbability implements ProbabilityEstimator {
+    private static final int SAMPLES = 2000;
+    private static final int DEADLINE_CHECK = 1024; // variables between two deadline checks
+    private static final long SEED = 0x5EEDL;
+    private static final byte UNASSIGNED = -1;
+
+    private final int[] variables;              // cell ids
+    private final int[][] constraintVariables;  // variable indices of each constraint
+    private final int[][] variableConstraints;  // constraint indices of each variable
+    private final int[] sums;
+    private final int[] order;                  // variables breadth first over the constraints
+    private final Deadline deadline;
+    private final SplittableRandom random;
+
+    // Search state
+    private final byte[] values;
+    private final int[] mines;                  // mines assigned so far, per constraint
+    private final int[] open;                   // unassigned variables, per constraint
+    private final int[] trail;
+    private int trailSize;
+    private int nodes;
+    private boolean expired;
+
+    /*
+     * detail constraint group
+     * variables cell ids of all variables in the constraint group, sorted
+     * deadline time by which sampling stops with the samples it has
+     */
+    public SamplingProbability(Collection<ConstraintDetails> detail, int[] variables, Deadline deadline) {
+        int n = variables.length;
+        ConstraintDetails[] details = detail.toArray(new ConstraintDetails[0]);
+        this.variables = variables;
+        this.constraintVariables = new int[details.length][];
+        this.sums = new int[details.length];
+        int[] degree = new int[n];
+        for (int c = 0; c < details.length; c++) {
+            this.constraintVariables[c] = new int[details[c].size()];
+            for (int i = 0; i < this.constraintVariables[c].length; i++) {
+                this.constraintVariables[c][i] = Arrays.binarySearch(variables, details[c].getUnknownNeighbour(i));
+                degree[this.constraintVariables[c][i]]++;
+            }
+            this.sums[c] = details[c].getNeighbourBombs();
+        }
+        this.variableConstraints = new int[n][];
+        for (int v = 0; v < n; v++) this.variableConstraints[v] = new int[degree[v]];
+        for (int c = 0; c < details.length; c++) {
+            for (int v : this.constraintVariables[c]) this.variableConstraints[v][--degree[v]] = c;
+        }
+
+        // Breadth first, so that constraints are closed early and few descents end in a contradiction
+        this.order = new int[n];
+        boolean[] reached = new boolean[n];
+        int size = 0;
+        for (int start = 0; start < n; start++) {
+            if (reached[start]) continue;
+            reached[start] = true;
+            int head = size;
+            this.order[size++] = start;
+            while (head < size) {
+                for (int c : this.variableConstraints[this.order[head++]]) {
+                    for (int v : this.constraintVariables[c]) {
+                        if (reached[v]) continue;
+                        reached[v] = true;
+                        this.order[size++] = v;
+                    }
+                }
+            }
+        }
+
+        this.deadline = deadline;
+        this.random = new SplittableRandom(SEED ^ Arrays.hashCode(variables));
+        this.values = new byte[n];
+        this.mines = new int[details.length];
+        this.open = new int[details.length];
+        this.trail = new int[n];
+    }
+
+    /*
+     * Samples the solutions of the group. If the deadline stops the sampling, the counts of the
+     * samples so far are returned, marked as not complete. If there is no solution, or none was
+     * found in time, all counts are 0.
+     *
+     * @return weighted sample counts and bomb counts per variable, by number of bombs
+     */
+    @Override
+    public SampledCounts count() {
+        int n = this.variables.length;
+        Arrays.fill(this.values, UNASSIGNED);
+        for (int c = 0; c < this.sums.length; c++) this.open[c] = this.constraintVariables[c].length;
+        Arrays.fill(this.mines, 0);
+        this.trailSize = 0;
+        this.nodes = 0;
+        this.expired = false;
+
+        // Mines of every sample, with its number of free choices and of bombs
+        long[][] samples = new long[SAMPLES][];
+        int[] choices = new int[SAMPLES];
+        int[] bombs = new int[SAMPLES];
+        int count = 0;
+        int tried = 0;
+        if (propagateAll()) {
+            int root = this.trailSize;
+            for (; tried < SAMPLES && !this.expired; tried++) {
+                int b = descend();
+                if (b >= 0) {
+                    samples[count] = new long[(n + 63) >> 6];
+                    for (int v = 0; v < n; v++) {
+                        if (this.values[v] == 1) {
+                            samples[count][v >> 6] |= 1L << v;
+                            bombs[count]++;
+                        }
+                    }
+                    choices[count++] = b;
+                }
+                undo(root);
+            }
+        }
+
+        // Weights are powers of 2, summed exactly; relative to the largest for the intervals, by number of bombs
+        BigInteger[] solutions = new BigInteger[n + 1];
+        BigInteger[][] cellBombs = new BigInteger[n + 1][n];
+        Arrays.fill(solutions, BigInteger.ZERO);
+        for (BigInteger[] counts : cellBombs) Arrays.fill(counts, BigInteger.ZERO);
+        int most = 0;
+        int low = n;
+        int high = 0;
+        for (int s = 0; s < count; s++) {
+            most = Math.max(most, choices[s]);
+            low = Math.min(low, bombs[s]);
+            high = Math.max(high, bombs[s]);
+        }
+        int range = count < 2 ? 0 : high - low + 1;
+        double[] weights = new double[range];
+        double[] squares = new double[range];
+        double[][] squaredBombs = new double[range][n];
+        double total = 0.0;
+        double totalSquares = 0.0;
+        for (int s = 0; s < count; s++) {
+            BigInteger weight = BigInteger.ONE.shiftLeft(choices[s]);
+            double relative = Math.scalb(1.0, choices[s] - most);
+            solutions[bombs[s]] = solutions[bombs[s]].add(weight);
+            total += relative;
+            totalSquares += relative * relative;
+            if (range > 0) {
+                weights[bombs[s] - low] += relative;
+                squares[bombs[s] - low] += relative * relative;
+            }
+            for (int v = 0; v < n; v++) {
+                if ((samples[s][v >> 6] & (1L << v)) == 0) continue;
+                cellBombs[bombs[s]][v] = cellBombs[bombs[s]][v].add(weight);
+                if (range > 0) squaredBombs[bombs[s] - low][v] += relative * relative;
+            }
+        }
+        double effective = count == 0 ? 0.0 : total * total / totalSquares;
+        return new SampledCounts(this.variables, cellBombs, solutions, low, weights, squares, squaredBombs, tried, effective, !this.expired);
+    }
+
+    /*
+     * One random descent from the root, the assignment is left in place for the caller.
+     *
+     * @return number of free choices, -1 if the descent ran into a contradiction or the deadline
+     */
+    private int descend() {
+        int choices = 0;
+        for (int v : this.order) {
+            if (this.values[v] != UNASSIGNED) continue;
+            if ((++this.nodes & (DEADLINE_CHECK - 1)) == 0 && this.deadline.isExpired()) this.expired = true;
+            if (this.expired) return -1;
+            int mark = this.trailSize;
+            boolean mine = assign(v, (byte) 1);
+            undo(mark);
+            boolean safe = assign(v, (byte) 0);
+            undo(mark);
+            if (!mine && !safe) return -1;
+            byte value = mine ? (byte) 1 : 0;
+            if (mine && safe) {
+                choices++;
+                value = (byte) this.random.nextInt(2);
+            }
+            assign(v, value);
+        }
+        return choices;
+    }
+
+    // Root propagation of constraints that are already tight.
+    private boolean propagateAll() {
+        for (int c = 0; c < this.sums.length; c++) {
+            if (!propagate(c)) return false;
+        }
+        return true;
+    }
+
+    // Assigns a value and propagates the sum constraints of the variable, false iff one can no longer be satisfied.
+    private boolean assign(int v, byte value) {
+        this.values[v] = value;
+        this.trail[this.trailSize++] = v;
+        for (int c : this.variableConstraints[v]) {
+            this.open[c]--;
+            this.mines[c] += value;
+        }
+        for (int c : this.variableConstraints[v]) {
+            if (!propagate(c)) return false;
+        }
+        return true;
+    }
+
+    private boolean propagate(int c) {
+        if (this.mines[c] > this.sums[c] || this.mines[c] + this.open[c] < this.sums[c]) return false;
+        if (this.open[c] == 0) return true;
+        byte forced;
+        if (this.mines[c] == this.sums[c]) forced = 0;
+        else if (this.mines[c] + this.open[c] == this.sums[c]) forced = 1;
+        else return true;
+        for (int u : this.constraintVariables[c]) {
+            if (this.values[u] == UNASSIGNED && !assign(u, forced)) return false;
+        }
+        return true;
+    }
+
+    // Unassigns everything above the trail mark.
+    private void undo(int mark) {
+        while (this.trailSize > mark) {
+            int v = this.trail[--this.trailSize];
+            for (int c : this.variableConstraints[v]) {
+                this.open[c]++;
+                this.mines[c] -= this.values[v];
+            }
+            this.values[v] = UNASSIGNED;
+        }
+    }
+}
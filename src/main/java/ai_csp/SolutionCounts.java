@@ -0,0 +1,93 @@
+package ai_csp;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+
+/*
+ * Solution counts of a constraint group, kept apart by the number of bombs k in a solution:
+ * how many solutions have k bombs, and how many of those put a bomb on each variable.
+ * The histogram over k is what GlobalProbability combines across groups. Counts are
+ * BigIntegers so that they can be multiplied and combined without overflow.
+ */
+public class SolutionCounts {
+    private final int[] variables;              // cell ids
+    private final BigInteger[][] cellBombs;     // cellBombs[k][i]: solutions with k bombs and a bomb on variables[i]
+    private final BigInteger[] solutions;       // solutions[k]: solutions with k bombs
+    private final BigInteger total;
+    private final boolean exact;                // false for counts of only part of the solutions
+
+    public SolutionCounts(int[] variables, BigInteger[][] cellBombs, BigInteger[] solutions) {
+        this(variables, cellBombs, solutions, true);
+    }
+
+    public SolutionCounts(int[] variables, BigInteger[][] cellBombs, BigInteger[] solutions, boolean exact) {
+        this.exact = exact;
+        this.variables = variables;
+        this.cellBombs = cellBombs;
+        this.solutions = solutions;
+        BigInteger sum = BigInteger.ZERO;
+        for (BigInteger count : solutions) sum = sum.add(count);
+        this.total = sum;
+    }
+
+    // Cell ids of the variables
+    public int[] getVariables() {
+        return this.variables;
+    }
+
+    // Number of solutions with a bomb on the variable
+    public BigInteger getCellBombs(int variable) {
+        BigInteger sum = BigInteger.ZERO;
+        for (BigInteger[] counts : this.cellBombs) sum = sum.add(counts[variable]);
+        return sum;
+    }
+
+    // Number of solutions with k bombs and a bomb on the variable
+    public BigInteger getCellBombs(int k, int variable) {
+        return this.cellBombs[k][variable];
+    }
+
+    // Number of solutions with k bombs, k = 0..variables
+    public BigInteger getSolutions(int k) {
+        return this.solutions[k];
+    }
+
+    // Solution histogram by number of bombs, index k = 0..variables
+    public BigInteger[] getSolutions() {
+        return this.solutions;
+    }
+
+    public BigInteger getTotal() {
+        return this.total;
+    }
+
+    // true iff all solutions were counted, otherwise the counts are an estimate
+    public boolean isExact() {
+        return this.exact;
+    }
+
+    // false if the deadline stopped the counting, only complete counts may be kept for later moves
+    public boolean isComplete() {
+        return this.exact;
+    }
+
+    // Least number of bombs in a solution, Integer.MAX_VALUE if there is no solution.
+    public int getMinBombs() {
+        for (int k = 0; k < this.solutions.length; k++) {
+            if (this.solutions[k].signum() > 0) return k;
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    // Probability of a bomb on the variable in percent, 0 if there is no solution.
+    public double getProbability(int variable) {
+        return percent(getCellBombs(variable), this.total);
+    }
+
+    // Percentage of two counts that don't have to fit into a double.
+    public static double percent(BigInteger count, BigInteger total) {
+        if (total.signum() == 0) return 0.0;
+        return 100.0 * new BigDecimal(count).divide(new BigDecimal(total), MathContext.DECIMAL64).doubleValue();
+    }
+}
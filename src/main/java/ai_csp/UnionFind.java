@@ -0,0 +1,43 @@
+package ai_csp;
+
+/*
+ * Disjoint sets over the ids 0..size-1, with union by size and path halving.
+ * Any sequence of n operations takes nearly linear time.
+ */
+public class UnionFind {
+    private final int[] parent;
+    private final int[] size;
+
+    public UnionFind(int size) {
+        this.parent = new int[size];
+        this.size = new int[size];
+        for (int i = 0; i < size; i++) {
+            this.parent[i] = i;
+            this.size[i] = 1;
+        }
+    }
+
+    // Representative of the set that contains id.
+    public int find(int id) {
+        while (this.parent[id] != id) {
+            this.parent[id] = this.parent[this.parent[id]];
+            id = this.parent[id];
+        }
+        return id;
+    }
+
+    // Merges the sets of a and b, returns the representative of the merged set.
+    public int union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA == rootB) return rootA;
+        if (this.size[rootA] < this.size[rootB]) {
+            int temp = rootA;
+            rootA = rootB;
+            rootB = temp;
+        }
+        this.parent[rootB] = rootA;
+        this.size[rootA] += this.size[rootB];
+        return rootA;
+    }
+}
@@ -0,0 +1,197 @@
+package main;
+
+import ai_csp.Agent;
+import ai_csp.Location;
+import javafx.application.Platform;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/*
+ * Plays one game with the agent on a background thread, so the JavaFX thread never waits for a solver.
+ * Every change of the board is queued as a Change. The queue is drained by a single Platform.runLater
+ * that is only scheduled when none is pending yet, so however fast the moves come, the UI gets them
+ * as one batch per frame.
+ */
+public class AgentWorker implements Runnable {
+    private static final System.Logger LOGGER = System.getLogger(AgentWorker.class.getName());
+
+    private final Agent agent;
+    private final GameModel game;
+    private final Consumer<List<Change>> view;
+    private final ConcurrentLinkedQueue<Change> changes;
+    private final AtomicBoolean scheduled;
+    private final Object pauseLock;
+    private volatile long delay;        // milliseconds between two moves
+    private volatile boolean paused;
+    private volatile boolean cancelled;
+    private Thread thread;
+
+    /*
+     * agent player of the game
+     * game board the agent plays on, only touched by the worker thread
+     * view applies batches of changes, called on the JavaFX thread
+     */
+    public AgentWorker(Agent agent, GameModel game, Consumer<List<Change>> view) {
+        this.agent = agent;
+        this.game = game;
+        this.view = view;
+        this.changes = new ConcurrentLinkedQueue<>();
+        this.scheduled = new AtomicBoolean(false);
+        this.pauseLock = new Object();
+    }
+
+    public void start() {
+        this.thread = new Thread(this, "agent-worker");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!this.game.isOver()) {
+                awaitTurn();
+                // If a bomb hasn't been marked already, the agent should flag all of them.
+                Location bomb;
+                while ((bomb = this.agent.markBomb()) != null) publish(Change.flag(bomb.getX(), bomb.getY()));
+                // Get next move from agent.
+                Location pos = this.agent.nextMove();
+                int neighbours = this.game.reveal(pos.getX(), pos.getY());
+                if (this.game.getState() == Game.GameState.LOST) {
+                    publish(Change.mine(pos.getX(), pos.getY()));
+                    break;
+                }
+                publish(Change.reveal(pos.getX(), pos.getY(), neighbours));
+                if (this.game.isOver()) break;
+                this.agent.sendBackResult(pos, neighbours);
+            }
+            if (this.game.getState() == Game.GameState.WON) {
+                Location bomb;
+                while ((bomb = this.agent.markBomb()) != null) publish(Change.flag(bomb.getX(), bomb.getY()));
+            }
+            publish(Change.state(this.game.getState()));
+        } catch (InterruptedException e) {
+            // Cancelled, the game is left as it is
+        } catch (RuntimeException | Error e) {
+            // The agent or the board failed, the UI has to stop waiting for the game. Errors too,
+            // e.g. a StackOverflowError of a deep search, else the worker would die silently.
+            LOGGER.log(System.Logger.Level.ERROR, "Agent failed, the game is stopped", e);
+            publish(Change.state(Game.GameState.FAILED));
+        }
+    }
+
+    // Waits while paused and then for the delay between moves.
+    private void awaitTurn() throws InterruptedException {
+        synchronized (this.pauseLock) {
+            while (this.paused && !this.cancelled) this.pauseLock.wait();
+        }
+        if (this.cancelled) throw new InterruptedException();
+        long delay = this.delay;
+        if (delay > 0) Thread.sleep(delay);
+        if (this.cancelled) throw new InterruptedException();
+    }
+
+    // Queues a change, and the drain of the queue unless one is already scheduled.
+    private void publish(Change change) {
+        this.changes.add(change);
+        if (this.scheduled.compareAndSet(false, true)) Platform.runLater(this::flush);
+    }
+
+    // JavaFX thread: hands everything queued so far to the view at once.
+    private void flush() {
+        this.scheduled.set(false);
+        List<Change> batch = new ArrayList<>();
+        Change change;
+        while ((change = this.changes.poll()) != null) batch.add(change);
+        if (!this.cancelled && !batch.isEmpty()) this.view.accept(batch);
+    }
+
+    public void setDelay(long delay) {
+        this.delay = delay;
+    }
+
+    public boolean isPaused() {
+        return this.paused;
+    }
+
+    public void setPaused(boolean paused) {
+        synchronized (this.pauseLock) {
+            this.paused = paused;
+            this.pauseLock.notifyAll();
+        }
+    }
+
+    // Stops the game after the current move, no more changes reach the view.
+    public void cancel() {
+        this.cancelled = true;
+        synchronized (this.pauseLock) {
+            this.pauseLock.notifyAll();
+        }
+        if (this.thread != null) this.thread.interrupt();
+    }
+
+    // A single change of the board, as seen by the UI.
+    public static class Change {
+        public enum Kind {
+            REVEAL, FLAG, MINE, STATE
+        }
+
+        private final Kind kind;
+        private final int x;
+        private final int y;
+        private final int neighbours;
+        private final Game.GameState state;
+
+        private Change(Kind kind, int x, int y, int neighbours, Game.GameState state) {
+            this.kind = kind;
+            this.x = x;
+            this.y = y;
+            this.neighbours = neighbours;
+            this.state = state;
+        }
+
+        // Revealed square without a bomb and its number of neighbour bombs
+        public static Change reveal(int x, int y, int neighbours) {
+            return new Change(Kind.REVEAL, x, y, neighbours, null);
+        }
+
+        // Flag put by the agent
+        public static Change flag(int x, int y) {
+            return new Change(Kind.FLAG, x, y, 0, null);
+        }
+
+        // Revealed bomb, the game is lost
+        public static Change mine(int x, int y) {
+            return new Change(Kind.MINE, x, y, 0, null);
+        }
+
+        // Final state of the game
+        public static Change state(Game.GameState state) {
+            return new Change(Kind.STATE, -1, -1, 0, state);
+        }
+
+        public Kind getKind() {
+            return this.kind;
+        }
+
+        public int getX() {
+            return this.x;
+        }
+
+        public int getY() {
+            return this.y;
+        }
+
+        public int getNeighbours() {
+            return this.neighbours;
+        }
+
+        public Game.GameState getState() {
+            return this.state;
+        }
+    }
+}
@@ -1,21 +1,37 @@
 package main;
 
-// Represents the actual board and its bombs.
+/*
+ * Represents the actual board and its bombs.
+ * The bombs are a bitboard, one bit per square. The number of bombs around each square
+ * is kept in 4 bits per square and updated by addBomb, so a reveal is a single lookup.
+ * That is 5 bits per square, small enough for boards of 10000 x 10000.
+ */
 public class Board {
-    private final boolean[][] board;
+    private static final int COUNT_BITS = 4;
+    private static final int COUNTS_PER_LONG = 64 / COUNT_BITS;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+    private final int width;
+    private final int height;
+    private final long[] bombs;     // bit (y * width + x) set iff (x,y) has a bomb
+    private final long[] counts;    // bombs in the 3x3 square around each square, 4 bits each
     private int bombCount;
 
     public Board(int width, int height) {
         this.bombCount = 0;
-        this.board = new boolean[height][width];
+        this.width = width;
+        this.height = height;
+        long size = (long) width * height;
+        this.bombs = new long[(int) ((size + 63) >> 6)];
+        this.counts = new long[(int) ((size + COUNTS_PER_LONG - 1) / COUNTS_PER_LONG)];
     }
 
     public int getWidth() {
-        return this.board[0].length;
+        return this.width;
     }
 
     public int getHeight() {
-        return this.board.length;
+        return this.height;
     }
 
     public int getBombCount() {
@@ -23,7 +39,7 @@ public class Board {
     }
 
     public boolean containsBomb(int x, int y) {
-        return board[y][x];
+        return containsBomb(cell(x, y));
     }
 
     // true iff (x,y) is outside the board
@@ -32,19 +48,68 @@ public class Board {
     }
 
     public void addBomb(int x, int y) {
-        if (!board[y][x]) bombCount++;
-        board[y][x] = true;
-    }
-
-    public int neighbourBombsCount(int x, int y) {
-        int counter = 0;
+        if (containsBomb(x, y)) return;
+        long cell = cell(x, y);
+        this.bombs[(int) (cell >> 6)] |= 1L << cell;
+        bombCount++;
         for (int i = x-1; i < x+2; i++) {
             for (int j = y-1; j < y+2; j++) {
-                if (outOfBoard(i, j) && containsBomb(i,j)) {
-                    counter++;
+                if (outOfBoard(i, j)) {
+                    long other = cell(i, j);
+                    this.counts[(int) (other / COUNTS_PER_LONG)] += 1L << (other % COUNTS_PER_LONG * COUNT_BITS);
                 }
             }
         }
-        return counter;
+    }
+
+    // Bombs in the 3x3 square around (x,y), including (x,y) itself.
+    public int neighbourBombsCount(int x, int y) {
+        long cell = cell(x, y);
+        return (int) ((this.counts[(int) (cell / COUNTS_PER_LONG)] >>> (cell % COUNTS_PER_LONG * COUNT_BITS)) & COUNT_MASK);
+    }
+
+    // true iff the square with the cell id y * width + x has a bomb
+    boolean containsBomb(long cell) {
+        return (this.bombs[(int) (cell >> 6)] & (1L << cell)) != 0;
+    }
+
+    // Bulk placement for the generator: bombs are set by cell id without counts, then countNeighbours() fills them in.
+    void setBomb(long cell, boolean bomb) {
+        if (containsBomb(cell) == bomb) return;
+        this.bombs[(int) (cell >> 6)] ^= 1L << cell;
+        this.bombCount += bomb ? 1 : -1;
+    }
+
+    // Puts a bomb on every square.
+    void fill() {
+        long size = (long) this.width * this.height;
+        java.util.Arrays.fill(this.bombs, -1L);
+        if ((size & 63) != 0) this.bombs[this.bombs.length - 1] = (1L << size) - 1;
+        this.bombCount = (int) size;
+    }
+
+    // Counts the bombs around every square in one pass over the rows.
+    void countNeighbours() {
+        java.util.Arrays.fill(this.counts, 0L);
+        int[] columns = new int[this.width];        // bombs in rows y-1..y+1 of each column
+        for (int y = 0; y < this.height; y++) {
+            for (int x = 0; x < this.width; x++) {
+                int sum = containsBomb(x, y) ? 1 : 0;
+                if (y > 0 && containsBomb(x, y - 1)) sum++;
+                if (y + 1 < this.height && containsBomb(x, y + 1)) sum++;
+                columns[x] = sum;
+            }
+            for (int x = 0; x < this.width; x++) {
+                int count = columns[x];
+                if (x > 0) count += columns[x - 1];
+                if (x + 1 < this.width) count += columns[x + 1];
+                long cell = cell(x, y);
+                this.counts[(int) (cell / COUNTS_PER_LONG)] |= (long) count << (cell % COUNTS_PER_LONG * COUNT_BITS);
+            }
+        }
+    }
+
+    private long cell(int x, int y) {
+        return (long) y * this.width + x;
     }
 }
@@ -1,14 +1,12 @@
 package main;
 
 import ai_csp.Agent;
-import ai_csp.Location;
 import javafx.application.Platform;
-import javafx.scene.layout.Background;
-import javafx.scene.layout.BackgroundFill;
 import javafx.scene.layout.BorderPane;
-import javafx.scene.paint.Color;
 import javafx.stage.Stage;
 
+import java.util.List;
+
 public class Controller {
 
     public static Controller controller = new Controller();
@@ -18,62 +16,67 @@ public class Controller {
     private Board board;
     private Game.GameState state = Game.GameState.GAME_STATE;
     private final RandomGenerator boardGenerator;
-    private Game.BoardCells boardButtons;
+    private Game.BoardCanvas boardCanvas;
     private final BorderPane root;
     private final Game.TopMenu menu;
     private final Game.LabelFrame labelContent;
     private Stage stage;
-    private int clicksToWin;
+    private GameModel game;
     private Agent agent;
+    private AgentWorker worker;
+    private long moveDelay;         // milliseconds between two agent moves
 
 
     private Controller() {
         this.boardGenerator = new RandomGenerator();
         this.board = null;
-        this.boardButtons = null;
+        this.boardCanvas = null;
         this.root = new BorderPane();
         this.menu = new Game.TopMenu();
         this.labelContent = new Game.LabelFrame();
         this.root.setTop(this.menu);
         this.board = this.boardGenerator.create(8, 8, 10, false);
-        this.clicksToWin = 8 * 8 - 10;
-        this.boardButtons = new Game.BoardCells(this.board);
-        this.root.setCenter(this.boardButtons);
+        this.game = new GameModel(this.board);
+        this.boardCanvas = new Game.BoardCanvas(8, 8);
+        this.root.setCenter(this.boardCanvas);
         this.root.setBottom(this.labelContent);
         this.labelContent.getPlay().setDisable(true);
         this.agent = null;
+        this.worker = null;
+        this.moveDelay = 100;
     }
 
     public void exit() {
+        this.stopPlay();
         Platform.exit();
     }
 
     public void newGame() {
+        this.stopPlay();
         this.state = Game.GameState.GAME_STATE;
         switch (size) {
             case SMALL -> {
                 this.board = this.boardGenerator.create(8, 8, 10, false);
                 this.labelContent.getBombsLeft().setAmountLeft(10);
-                this.clicksToWin = 8 * 8 - 10;
                 if (this.player == Game.Player.CSP_AGENT) this.agent = new Agent(8, 8, 10);
             }
             case MEDIUM -> {
                 this.board = this.boardGenerator.create(12, 12, 30, false);
                 this.labelContent.getBombsLeft().setAmountLeft(30);
-                this.clicksToWin = 12 * 12 - 30;
                 if (this.player == Game.Player.CSP_AGENT) this.agent = new Agent(12, 12, 30);
             }
             case LARGE -> {
                 this.board = this.boardGenerator.create(16, 16, 60, false);
                 this.labelContent.getBombsLeft().setAmountLeft(60);
-                this.clicksToWin = 16 * 16 - 60;
                 if (this.player == Game.Player.CSP_AGENT) this.agent = new Agent(16, 16, 60);
             }
         }
+        this.game = new GameModel(this.board);
         this.labelContent.setStatus(this.state);
         labelContent.getPlay().setDisable(this.player == Game.Player.MANUAL);
-        this.boardButtons = new Game.BoardCells(this.board);
-        this.root.setCenter(this.boardButtons);
+        this.boardCanvas.dispose();
+        this.boardCanvas = new Game.BoardCanvas(this.board.getWidth(), this.board.getHeight());
+        this.root.setCenter(this.boardCanvas);
     }
 
     public void setPlayer(Game.Player player) {
@@ -100,116 +103,96 @@ public class Controller {
         this.stage.setHeight(this.stage.getHeight() + 20);
     }
 
-    public static void designButton(Game.CellButton cellButton, String text, Color COLOR)
-    {
-        cellButton.setText(text);
-        cellButton.setBackground(new Background(new BackgroundFill(COLOR, null, null)));
-    }
-
     // region Manual Player Controls
-    // cell buttons for manual player
-    public void cellButtonActions(Game.CellButton button, int x, int y) {
-        if (this.player == Game.Player.CSP_AGENT || this.state == Game.GameState.LOST || this.state == Game.GameState.WON || button.isClicked() || button.getText().equals("F")) return;
-        if (this.state == Game.GameState.GAME_STATE) {
-            this.state = Game.GameState.MOMENT;
-            this.labelContent.setStatus(this.state);
-        }
-        button.click();
-
-        if (this.board.containsBomb(x,y)) {
-            designButton(button, "*", Color.ORANGERED);
-            this.state = Game.GameState.LOST;
-            this.labelContent.setStatus(this.state);
-        } else {
-            this.clicksToWin--;
-            int adj = this.board.neighbourBombsCount(x, y);
-            if (adj == 0) {
-                // Recursive auto update for 0-squares
-                if (board.outOfBoard(x - 1, y - 1)) this.boardButtons.get(x - 1, y - 1).fire();
-                if (board.outOfBoard(x, y - 1)) this.boardButtons.get(x, y - 1).fire();
-                if (board.outOfBoard(x + 1, y - 1)) this.boardButtons.get(x + 1, y - 1).fire();
-                if (board.outOfBoard(x - 1, y)) this.boardButtons.get(x - 1, y).fire();
-                if (board.outOfBoard(x + 1, y)) this.boardButtons.get(x + 1, y).fire();
-                if (board.outOfBoard(x - 1, y + 1)) this.boardButtons.get(x - 1, y + 1).fire();
-                if (board.outOfBoard(x, y + 1)) this.boardButtons.get(x, y + 1).fire();
-                if (board.outOfBoard(x + 1, y + 1)) this.boardButtons.get(x + 1, y + 1).fire();
-            } else {
-                button.setText(Integer.toString(adj));
-            }
-            button.setBackground(new Background(new BackgroundFill(Color.SLATEGRAY, null, null)));
-            if (clicksToWin == 0) {
-                this.state = Game.GameState.WON;
-                this.labelContent.setStatus(this.state);
-            }
+    // squares clicked by the manual player, a whole area is revealed and drawn in one pass
+    public void cellActions(int x, int y) {
+        if (this.player == Game.Player.CSP_AGENT || this.game.isOver()) return;
+        GameModel.Revealed revealed = this.game.revealArea(x, y);
+        if (revealed.size() == 0) return;
+        for (int i = 0; i < revealed.size(); i++) {
+            byte cell = revealed.isMine() ? Game.BoardCanvas.MINE : (byte) revealed.getNeighbours(i);
+            this.boardCanvas.set(revealed.getX(i), revealed.getY(i), cell);
         }
+        this.state = this.game.getState();
+        this.labelContent.setStatus(this.state);
     }
 
     // Put flag for manual player
-    public void markBomb(Game.CellButton button) {
-        if (this.player == Game.Player.CSP_AGENT || this.state == Game.GameState.LOST || this.state == Game.GameState.WON) return;
-        if (button.getText().equals("F")) {
-            button.setText("");
-            this.labelContent.getBombsLeft().incrementBombsLeft();
-        } else {
-            button.setText("F");
-            designButton(button, "F", Color.INDIANRED);
+    public void markBomb(int x, int y) {
+        if (this.player == Game.Player.CSP_AGENT || this.game.isOver() || this.game.isRevealed(x, y)) return;
+        if (this.game.toggleFlag(x, y)) {
+            this.boardCanvas.set(x, y, Game.BoardCanvas.FLAG);
             this.labelContent.getBombsLeft().decrementBombsLeft();
+        } else {
+            this.boardCanvas.set(x, y, Game.BoardCanvas.HIDDEN);
+            this.labelContent.getBombsLeft().incrementBombsLeft();
         }
     }
     //endregion
 
     //region Agent Player Controls
-    // Run Solver
+    // Run Solver, the game is played by a worker thread and shown here as it goes.
     public void startPlay() {
         if (this.player == Game.Player.MANUAL) return;
         newGame();
         this.state = Game.GameState.MOMENT;
         this.labelContent.setStatus(this.state);
-        while (this.state != Game.GameState.LOST && this.state != Game.GameState.WON) {
-            // If a bomb hasn't been marked already, the agent should flag all of them.
-            Location bomb;
-            while ((bomb = this.agent.markBomb()) != null) {
-                designButton(this.boardButtons.get(bomb.getX(), bomb.getY()), "F", Color.INDIANRED );
-                this.labelContent.getBombsLeft().decrementBombsLeft();
-            }
-            // Get next move from agent.
-            Location pos = this.agent.nextMove();
+        this.worker = new AgentWorker(this.agent, this.game, this::applyChanges);
+        this.worker.setDelay(this.moveDelay);
+        this.setRunning(true);
+        this.worker.start();
+    }
 
-            this.agent.sendBackResult(pos, agentButtonClick(pos.getX(), pos.getY()));
-        }
-        if (this.state == Game.GameState.WON) {
-            Location bomb;
-            while ((bomb = this.agent.markBomb()) != null) {
-                this.boardButtons.get(bomb.getX(), bomb.getY()).setText("F");
-                this.boardButtons.get(bomb.getX(), bomb.getY()).setBackground(new Background(new BackgroundFill(Color.INDIANRED, null, null)));
-                this.labelContent.getBombsLeft().decrementBombsLeft();
-            }
-        }
+    // Pauses or resumes the running agent.
+    public void togglePause() {
+        if (this.worker == null) return;
+        this.worker.setPaused(!this.worker.isPaused());
+        this.labelContent.setPaused(this.worker.isPaused());
     }
 
-    private int agentButtonClick(int x, int y) {
-        Game.CellButton button = this.boardButtons.get(x, y);
-        button.click();
-        if (this.board.containsBomb(x,y)) {
-            // Lost, just return sentinel val
-            designButton(button, "*", Color.ORANGERED);
-            this.state = Game.GameState.LOST;
-            this.labelContent.setStatus(this.state);
-            return 0;
-        } else {
-            // If the square does not contain a bomb, we return the number that it contains.
-            // This is the only communication with the agent.
-            this.clicksToWin--;
-            int adj = this.board.neighbourBombsCount(x, y);
-            if (adj != 0) button.setText(Integer.toString(adj));
-            button.setBackground(new Background(new BackgroundFill(Color.SLATEGRAY, null, null)));
+    // Cancels the running agent, the board keeps the moves made so far.
+    public void stopPlay() {
+        if (this.worker == null) return;
+        this.worker.cancel();
+        this.worker = null;
+        this.setRunning(false);
+    }
 
+    // speed 0..100, 100 plays without waiting between moves
+    public void setSpeed(double speed) {
+        this.moveDelay = Math.round((100 - speed) * 10);
+        if (this.worker != null) this.worker.setDelay(this.moveDelay);
+    }
+
+    // Settings can't change under a running agent.
+    private void setRunning(boolean running) {
+        this.menu.setSettings(running);
+        this.labelContent.getPlay().setDisable(running || this.player == Game.Player.MANUAL);
+        this.labelContent.setRunning(running);
+    }
 
-            if (clicksToWin == 0) {
-                this.state = Game.GameState.WON;
-                this.labelContent.setStatus(this.state);
+    // JavaFX thread: a batch of changes made by the worker since the last frame.
+    private void applyChanges(List<AgentWorker.Change> changes) {
+        for (AgentWorker.Change change : changes) {
+            switch (change.getKind()) {
+                case REVEAL -> {
+                    // If the square does not contain a bomb, it shows the number that it contains.
+                    this.boardCanvas.set(change.getX(), change.getY(), (byte) change.getNeighbours());
+                }
+                case FLAG -> {
+                    this.boardCanvas.set(change.getX(), change.getY(), Game.BoardCanvas.FLAG);
+                    this.labelContent.getBombsLeft().decrementBombsLeft();
+                }
+                case MINE -> {
+                    this.boardCanvas.set(change.getX(), change.getY(), Game.BoardCanvas.MINE);
+                }
+                case STATE -> {
+                    this.state = change.getState();
+                    this.labelContent.setStatus(this.state);
+                    this.worker = null;
+                    this.setRunning(false);
+                }
             }
-            return adj;
         }
     }
     //endregion
@@ -2,23 +2,30 @@ package main;
 
 
 
+import javafx.animation.AnimationTimer;
 import javafx.animation.KeyFrame;
 import javafx.animation.Timeline;
 import javafx.application.Application;
-import javafx.geometry.Insets;
 import javafx.geometry.Pos;
+import javafx.geometry.VPos;
 import javafx.scene.Cursor;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.*;
 import javafx.scene.input.MouseButton;
-import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.*;
 import javafx.scene.paint.Color;
 import javafx.scene.paint.Paint;
+import javafx.scene.text.Font;
+import javafx.scene.text.TextAlignment;
 import javafx.stage.Stage;
 
 import javafx.scene.Scene;
 import javafx.util.Duration;
 
+import java.util.Arrays;
+import java.util.BitSet;
+
 
 public class Game {
 
@@ -52,7 +59,7 @@ public class Game {
     }
     
     public enum GameState {
-        GAME_STATE,  WON, LOST, MOMENT;
+        GAME_STATE,  WON, LOST, MOMENT, FAILED;
 
         @Override
         public String toString() {
@@ -61,6 +68,7 @@ public class Game {
                 case WON -> "Status | Won!";
                 case LOST -> "Status | Lost!";
                 case MOMENT -> "Status | Playing...";
+                case FAILED -> "Status | Agent failed!";
             };
         }
     }
@@ -131,6 +139,9 @@ public class Game {
 
         private final BombCounter bombsLeft;
         private final Button play;
+        private final Button pause;
+        private final Button stop;
+        private final Slider speed;
         private final Label status;
         private final Label info;
 
@@ -139,6 +150,14 @@ public class Game {
             this.bombsLeft = new BombCounter(10);
             this.play = new Button("Start");
             this.play.setOnAction(event -> Controller.controller.startPlay());
+            this.pause = new Button("Pause");
+            this.pause.setOnAction(event -> Controller.controller.togglePause());
+            this.stop = new Button("Stop");
+            this.stop.setOnAction(event -> Controller.controller.stopPlay());
+            this.speed = new Slider(0, 100, 90);
+            this.speed.setPrefWidth(100);
+            this.speed.valueProperty().addListener((observable, before, value) -> Controller.controller.setSpeed(value.doubleValue()));
+            this.setRunning(false);
             this.status = new Label("Status");
             this.info = new Label(" `*` Mine | `F` Flag ");
 
@@ -152,13 +171,18 @@ public class Game {
             upper.setAlignment(Pos.BASELINE_CENTER);
             upper.getChildren().addAll(this.bombsLeft);
 
+            HBox agentControls = new HBox();
+            agentControls.setSpacing(10);
+            agentControls.setAlignment(Pos.BASELINE_CENTER);
+            agentControls.getChildren().addAll(this.pause, this.stop, new Label("Speed"), this.speed);
+
             HBox lower = new HBox();
             lower.setSpacing(35);
             lower.setAlignment(Pos.BASELINE_CENTER);
             lower.getChildren().addAll(this.info);
 
             this.setSpacing(10);
-            this.getChildren().addAll(upper, lower);
+            this.getChildren().addAll(upper, agentControls, lower);
         }
 
 
@@ -174,65 +198,119 @@ public class Game {
         public void setStatus(GameState state) {
             this.status.setText(state.toString());
         }
-    }
-
-    // Single Cell Button
-    public static class CellButton extends Button {
 
-        private final int x;
-        private final int y;
-        private boolean clicked;
-
-        // x,y: coordinates
-        public CellButton(int x, int y) {
-            this.x = x;
-            this.y = y;
-            this.clicked = false;
+        // Pause and stop only work while the agent plays
+        public void setRunning(boolean running) {
+            this.pause.setDisable(!running);
+            this.stop.setDisable(!running);
+            this.setPaused(false);
+        }
 
-            // main button
-            this.setOnAction(event -> Controller.controller.cellButtonActions(this, this.x, this.y));
+        public void setPaused(boolean paused) {
+            this.pause.setText(paused ? "Resume" : "Pause");
+        }
+    }
 
-            // secondary button
-            this.addEventHandler(MouseEvent.MOUSE_CLICKED, event -> {
-                if (event.getButton() == MouseButton.SECONDARY && !clicked) Controller.controller.markBomb(this);
+    /*
+     * The board drawn on a single Canvas instead of one node per square. Every square is one byte of
+     * state, by cell id y * width + x like the agent's grid. Changed squares are marked dirty and only
+     * those are painted again, once per frame.
+     */
+    public static class BoardCanvas extends Canvas {
+        public static final byte HIDDEN = -1;
+        public static final byte FLAG = -2;
+        public static final byte MINE = -3;     // 0..8 revealed square with its number of neighbour bombs
+
+        private static final int PADDING = 4;
+        private static final int MAX_CELL = 35;
+        private static final int MAX_BOARD = 900;   // pixels, larger boards get smaller squares
+
+        private final int width;
+        private final int height;
+        private final int cellSize;
+        private final byte[] cells;
+        private final BitSet dirty;
+        private final AnimationTimer painter;
+
+        public BoardCanvas(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.cellSize = Math.max(2, Math.min(MAX_CELL, MAX_BOARD / Math.max(width, height)));
+            this.cells = new byte[width * height];
+            Arrays.fill(this.cells, HIDDEN);
+            this.dirty = new BitSet(this.cells.length);
+            this.dirty.set(0, this.cells.length);
+            this.setWidth(width * this.cellSize + 2 * PADDING);
+            this.setHeight(height * this.cellSize + 2 * PADDING);
+            this.getGraphicsContext2D().setFill(Color.BLACK);
+            this.getGraphicsContext2D().fillRect(0, 0, this.getWidth(), this.getHeight());
+
+            // primary button reveals, secondary button flags
+            this.setOnMouseClicked(event -> {
+                int x = (int) ((event.getX() - PADDING) / this.cellSize);
+                int y = (int) ((event.getY() - PADDING) / this.cellSize);
+                if (event.getX() < PADDING || event.getY() < PADDING || x >= this.width || y >= this.height) return;
+                if (event.getButton() == MouseButton.PRIMARY) Controller.controller.cellActions(x, y);
+                else if (event.getButton() == MouseButton.SECONDARY) Controller.controller.markBomb(x, y);
             });
-            this.setMaxWidth(35);
-            this.setMinWidth(35);
-            this.setMaxHeight(35);
-            this.setMinHeight(35);
-        }
 
-        // true iff the button has already been clicked.
-        public boolean isClicked() {
-            return this.clicked;
+            this.painter = new AnimationTimer() {
+                @Override
+                public void handle(long now) {
+                    paintDirty();
+                }
+            };
+            this.painter.start();
         }
 
-        // Sets the button as 'already clicked'.
-        public void click() {
-            this.clicked = true;
+        public byte get(int x, int y) {
+            return this.cells[y * this.width + x];
         }
-    }
 
-    public static class BoardCells extends GridPane {
+        // Changes a square, it is painted in the next frame.
+        public void set(int x, int y, byte state) {
+            int id = y * this.width + x;
+            if (this.cells[id] == state) return;
+            this.cells[id] = state;
+            this.dirty.set(id);
+        }
 
-        private final CellButton[][] cells;
+        // Stops painting, the canvas is no longer shown.
+        public void dispose() {
+            this.painter.stop();
+        }
 
-        public BoardCells(Board board) {
-            this.setAlignment(Pos.CENTER);
-            this.cells = new CellButton[board.getWidth()][board.getHeight()];
-            setPadding(new Insets(4));
-            setStyle("-fx-background-color: black;");
-            for (int i = 0; i < board.getWidth(); i++) {
-                for (int j = 0; j < board.getHeight(); j++) {
-                    CellButton button = new CellButton(i,j);
-                    this.add(button, i, j);
-                    this.cells[i][j] = button;
+        private void paintDirty() {
+            if (this.dirty.isEmpty()) return;
+            GraphicsContext graphics = this.getGraphicsContext2D();
+            graphics.setTextAlign(TextAlignment.CENTER);
+            graphics.setTextBaseline(VPos.CENTER);
+            graphics.setFont(Font.font(this.cellSize * 0.5));
+            int gap = this.cellSize > 4 ? 1 : 0;
+            for (int id = this.dirty.nextSetBit(0); id >= 0; id = this.dirty.nextSetBit(id + 1)) {
+                double left = PADDING + (id % this.width) * this.cellSize;
+                double top = PADDING + (id / this.width) * this.cellSize;
+                byte state = this.cells[id];
+                graphics.setFill(switch (state) {
+                    case HIDDEN -> Color.LIGHTGRAY;
+                    case FLAG -> Color.INDIANRED;
+                    case MINE -> Color.ORANGERED;
+                    default -> Color.SLATEGRAY;
+                });
+                graphics.fillRect(left + gap, top + gap, this.cellSize - gap, this.cellSize - gap);
+                String text = switch (state) {
+                    case HIDDEN, 0 -> null;
+                    case FLAG -> "F";
+                    case MINE -> "*";
+                    default -> Integer.toString(state);
+                };
+                // Text is left out once the squares get too small to read it
+                if (text != null && this.cellSize >= 12) {
+                    graphics.setFill(Color.BLACK);
+                    graphics.fillText(text, left + this.cellSize / 2.0, top + this.cellSize / 2.0);
                 }
             }
-        }
-
-        public CellButton get(int x, int y) {
-            return this.cells[x][y];
+            this.dirty.clear();
         }
     }
 
@@ -0,0 +1,161 @@
+package main;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+// A single game without any UI: the actual board and the progress of the player on it.
+public class GameModel {
+    private final Board board;
+    private Game.GameState state;
+    private int clicksToWin;
+    private final BitSet revealed;      // by cell id y * width + x
+    private final BitSet flagged;
+
+    public GameModel(Board board) {
+        this.board = board;
+        this.revealed = new BitSet(board.getWidth() * board.getHeight());
+        this.flagged = new BitSet(board.getWidth() * board.getHeight());
+        this.state = Game.GameState.GAME_STATE;
+        this.clicksToWin = board.getWidth() * board.getHeight() - board.getBombCount();
+    }
+
+    public Board getBoard() {
+        return this.board;
+    }
+
+    public Game.GameState getState() {
+        return this.state;
+    }
+
+    public int getClicksToWin() {
+        return this.clicksToWin;
+    }
+
+    // true iff the game has been won or lost.
+    public boolean isOver() {
+        return this.state == Game.GameState.WON || this.state == Game.GameState.LOST;
+    }
+
+    /*
+     * Reveals (x,y). If the square contains a bomb the game is lost and 0 is returned as a
+     * sentinel, like the Controller does for the agent. Otherwise, the number of neighbour
+     * bombs is returned, which is the only communication with the agent.
+     */
+    public int reveal(int x, int y) {
+        this.state = Game.GameState.MOMENT;
+        if (this.board.containsBomb(x, y)) {
+            this.state = Game.GameState.LOST;
+            return 0;
+        }
+        int id = y * this.board.getWidth() + x;
+        if (!this.revealed.get(id)) {
+            this.revealed.set(id);
+            this.clicksToWin--;
+        }
+        if (this.clicksToWin == 0) this.state = Game.GameState.WON;
+        return this.board.neighbourBombsCount(x, y);
+    }
+
+    /*
+     * Reveals (x,y) the way a player's click does: a square without neighbour bombs also reveals
+     * its neighbours. The area is filled breadth first with an array as the queue, so it takes
+     * no recursion however large it is. Flagged and already revealed squares are left alone.
+     * All newly revealed squares come back at once and clicksToWin is updated once.
+     */
+    public Revealed revealArea(int x, int y) {
+        int width = this.board.getWidth();
+        int start = y * width + x;
+        if (this.isOver() || this.revealed.get(start) || this.flagged.get(start)) return new Revealed(width, new int[0], new byte[0], 0, false);
+        this.state = Game.GameState.MOMENT;
+        if (this.board.containsBomb(x, y)) {
+            this.state = Game.GameState.LOST;
+            return new Revealed(width, new int[]{start}, new byte[]{0}, 1, true);
+        }
+
+        // Every square is queued once, so the queue never holds more than the squares to win
+        int[] queue = new int[Math.min(this.clicksToWin, 64)];
+        byte[] numbers = new byte[queue.length];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = start;
+        this.revealed.set(start);
+        while (head < tail) {
+            int id = queue[head];
+            int cx = id % width;
+            int cy = id / width;
+            int count = this.board.neighbourBombsCount(cx, cy);
+            numbers[head++] = (byte) count;
+            if (count != 0) continue;
+            for (int j = cy - 1; j <= cy + 1; j++) {
+                for (int i = cx - 1; i <= cx + 1; i++) {
+                    if (!this.board.outOfBoard(i, j)) continue;
+                    int neighbour = j * width + i;
+                    if (this.revealed.get(neighbour) || this.flagged.get(neighbour)) continue;
+                    this.revealed.set(neighbour);
+                    if (tail == queue.length) {
+                        queue = Arrays.copyOf(queue, Math.min(2 * queue.length, this.clicksToWin));
+                        numbers = Arrays.copyOf(numbers, queue.length);
+                    }
+                    queue[tail++] = neighbour;
+                }
+            }
+        }
+        this.clicksToWin -= tail;
+        if (this.clicksToWin == 0) this.state = Game.GameState.WON;
+        return new Revealed(width, queue, numbers, tail, false);
+    }
+
+    // Puts or takes away a flag on a square that isn't revealed, returns true iff it is flagged now.
+    public boolean toggleFlag(int x, int y) {
+        int id = y * this.board.getWidth() + x;
+        if (this.revealed.get(id)) return false;
+        this.flagged.flip(id);
+        return this.flagged.get(id);
+    }
+
+    public boolean isRevealed(int x, int y) {
+        return this.revealed.get(y * this.board.getWidth() + x);
+    }
+
+    public boolean isFlagged(int x, int y) {
+        return this.flagged.get(y * this.board.getWidth() + x);
+    }
+
+    // Squares revealed by one click, in the order they were reached.
+    public static class Revealed {
+        private final int width;
+        private final int[] cells;          // cell ids
+        private final byte[] numbers;       // neighbour bombs of each square
+        private final int size;
+        private final boolean mine;
+
+        private Revealed(int width, int[] cells, byte[] numbers, int size, boolean mine) {
+            this.width = width;
+            this.cells = cells;
+            this.numbers = numbers;
+            this.size = size;
+            this.mine = mine;
+        }
+
+        public int size() {
+            return this.size;
+        }
+
+        public int getX(int i) {
+            return this.cells[i] % this.width;
+        }
+
+        public int getY(int i) {
+            return this.cells[i] / this.width;
+        }
+
+        public int getNeighbours(int i) {
+            return this.numbers[i];
+        }
+
+        // true iff the click hit a mine, it is then the only square
+        public boolean isMine() {
+            return this.mine;
+        }
+    }
+}
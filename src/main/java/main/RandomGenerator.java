@@ -1,13 +1,28 @@
 package main;
 
-import java.util.Random;
+import java.util.SplittableRandom;
 
 public class RandomGenerator {
     private static final int SPLIT_BOUNDARY = 5;
-    private final Random random;
+    private final SplittableRandom random;
 
     public RandomGenerator() {
-        this.random = new Random();
+        this.random = new SplittableRandom();
+    }
+
+    // Seeded generator, the same seed always creates the same boards.
+    public RandomGenerator(long seed) {
+        this.random = new SplittableRandom(seed);
+    }
+
+    // Generator on a given stream, e.g. one split off for a worker.
+    public RandomGenerator(SplittableRandom random) {
+        this.random = random;
+    }
+
+    // A new generator with an independent stream, for use in another thread.
+    public RandomGenerator split() {
+        return new RandomGenerator(this.random.split());
     }
 
     // Creates a random board with given parameters. There are 4 different options,
@@ -18,17 +33,51 @@ public class RandomGenerator {
         return (equalDistributed ?  createEqualDistributed(width, height, bombs) : create(width, height, bombs));
     }
 
-    // Create without restriction
+    /*
+     * Create without restriction. Floyd's sampling over cell ids, with the bitboard as the set
+     * of chosen squares and exactly one random number per pick. Above half density the safe
+     * squares are picked instead. The neighbour counts are filled in once at the end.
+     */
     private Board create(int width, int height, int bombs) {
         Board board = new Board(width, height);
-        while (board.getBombCount() < bombs) {
-            int x = this.random.nextInt(width);
-            int y = this.random.nextInt(height);
-            board.addBomb(x, y);
+        long squares = (long) width * height;
+        boolean dense = bombs > squares / 2;
+        if (dense) board.fill();
+        long picks = dense ? squares - Math.min(bombs, squares) : Math.max(bombs, 0);
+        for (long j = squares - picks; j < squares; j++) {
+            long t = this.random.nextLong(j + 1);
+            if (board.containsBomb(t) != dense) t = j;      // t was picked before, j never was
+            board.setBomb(t, !dense);
         }
+        board.countNeighbours();
         return board;
     }
 
+    /*
+     * Floyd's sampling on a part of the board: adds bombs to distinct random squares of the
+     * rectangle, which must be free of bombs, with exactly one random number per bomb.
+     *
+     * minX lower horizontal bound
+     * maxX upper horizontal bound
+     * minY lower vertical bound
+     * maxY upper vertical bound
+     * bombs number of bombs, at most the number of squares
+     */
+    private void sample(Board board, int minX, int maxX, int minY, int maxY, int bombs) {
+        int columns = maxX - minX + 1;
+        long squares = (long) columns * (maxY - minY + 1);
+        for (long j = squares - Math.min(bombs, squares); j < squares; j++) {
+            long t = this.random.nextLong(j + 1);
+            int x = minX + (int) (t % columns);
+            int y = minY + (int) (t / columns);
+            if (board.containsBomb(x, y)) {
+                x = minX + (int) (j % columns);
+                y = minY + (int) (j / columns);
+            }
+            board.addBomb(x, y);
+        }
+    }
+
 
     private Board createEqualDistributed(int width, int height, int bombs) {
         Board board = new Board(width, height);
@@ -90,9 +139,7 @@ public class RandomGenerator {
                     board.addBomb(x, y);
                 }
             } else {
-                while (board.getBombCount() < goalBombs) {
-                    board.addBomb(intervalRandom(minX, maxX), intervalRandom(minY, maxY));
-                }
+                sample(board, minX, maxX, minY, maxY, bombs);
             }
         }
     }
@@ -0,0 +1,232 @@
+package main;
+
+import ai_csp.Agent;
+import ai_csp.ComponentCache;
+import ai_csp.Location;
+import ai_csp.Metrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Headless batch runner that plays the CSP agent against random boards without JavaFX.
+ * Games are spread over a fixed pool of workers, with a fresh agent per game. Every game
+ * gets its own random stream, split off in advance, so a seeded run plays the same games
+ * whatever the number of threads. All agents share one cache of solved components.
+ * The move protocol is the same as Controller.startPlay().
+ * With a metrics directory, the Metrics of the run are written to metrics.json and
+ * metrics.prom in it every few seconds and at the end, for a local scraper, "-" for none.
+ * With a move budget, every move of the agents is bounded to that many milliseconds.
+ *
+ * Usage: Simulator <width> <height> <bombs> <games> [threads] [seed] [metrics directory] [move budget ms]
+ */
+public class Simulator {
+
+    private final int width;
+    private final int height;
+    private final int bombs;
+    private final int threads;
+    private final SplittableRandom random;
+    private final ComponentCache cache;
+    private long moveBudget;                        // milliseconds, 0 for none
+
+    private static final long METRICS_PERIOD = 5;   // seconds between two metrics files
+
+    public Simulator(int width, int height, int bombs, int threads) {
+        this(width, height, bombs, threads, new SplittableRandom());
+    }
+
+    // Seeded simulator, the same seed always plays the same games.
+    public Simulator(int width, int height, int bombs, int threads, long seed) {
+        this(width, height, bombs, threads, new SplittableRandom(seed));
+    }
+
+    private Simulator(int width, int height, int bombs, int threads, SplittableRandom random) {
+        this.width = width;
+        this.height = height;
+        this.bombs = bombs;
+        this.threads = threads;
+        this.random = random;
+        this.cache = new ComponentCache();
+    }
+
+    public static void main(String[] args) throws InterruptedException, ExecutionException {
+        if (args.length < 4) {
+            System.out.println("Usage: Simulator <width> <height> <bombs> <games> [threads] [seed] [metrics directory] [move budget ms]");
+            return;
+        }
+        int width = Integer.parseInt(args[0]);
+        int height = Integer.parseInt(args[1]);
+        int bombs = Integer.parseInt(args[2]);
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+        Simulator simulator = args.length > 5
+                ? new Simulator(width, height, bombs, threads, Long.parseLong(args[5]))
+                : new Simulator(width, height, bombs, threads);
+        Path metrics = args.length > 6 && !args[6].equals("-") ? Path.of(args[6]) : null;
+        if (args.length > 7) simulator.setMoveBudget(Long.parseLong(args[7]));
+        ScheduledExecutorService exporter = null;
+        if (metrics != null) {
+            exporter = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "metrics-exporter");
+                thread.setDaemon(true);
+                return thread;
+            });
+            exporter.scheduleAtFixedRate(() -> exportMetrics(metrics), METRICS_PERIOD, METRICS_PERIOD, TimeUnit.SECONDS);
+        }
+        try {
+            System.out.println(simulator.run(Integer.parseInt(args[3])));
+            System.out.println(simulator.getCache());
+        } finally {
+            if (exporter != null) {
+                exporter.shutdown();
+                exporter.awaitTermination(METRICS_PERIOD, TimeUnit.SECONDS);
+            }
+        }
+        if (metrics != null) exportMetrics(metrics);
+    }
+
+    // Writes the current metrics of all agents into the directory.
+    private static void exportMetrics(Path directory) {
+        try {
+            Metrics.get().writeJson(directory.resolve("metrics.json"));
+            Metrics.get().writePrometheus(directory.resolve("metrics.prom"));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Plays the given number of games on all workers and returns the merged statistics.
+    public Stats run(int games) throws InterruptedException, ExecutionException {
+        ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+        SplittableRandom[] streams = new SplittableRandom[games];
+        for (int i = 0; i < games; i++) streams[i] = this.random.split();
+        AtomicInteger next = new AtomicInteger();
+        long start = System.nanoTime();
+        try {
+            List<Future<Stats>> workers = new ArrayList<>();
+            for (int i = 0; i < this.threads; i++) {
+                workers.add(executor.submit(() -> work(streams, next)));
+            }
+            Stats total = new Stats();
+            for (Future<Stats> worker : workers) total.merge(worker.get());
+            total.wallNanos = System.nanoTime() - start;
+            return total;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public ComponentCache getCache() {
+        return this.cache;
+    }
+
+    // Bounds every move of the agents, see Agent.setMoveBudget(). 0 for no bound, the default.
+    public void setMoveBudget(long millis) {
+        this.moveBudget = millis;
+    }
+
+    // A single worker, plays games until there are none left. The board and the agent of a game both come from its stream.
+    private Stats work(SplittableRandom[] streams, AtomicInteger next) {
+        Stats stats = new Stats();
+        int index;
+        while ((index = next.getAndIncrement()) < streams.length) {
+            SplittableRandom stream = streams[index];
+            long seed = stream.nextLong();
+            GameModel game = new GameModel(new RandomGenerator(stream).create(this.width, this.height, this.bombs, false));
+            Agent agent = new Agent(this.width, this.height, this.bombs, seed, this.cache);
+            agent.setMoveBudget(this.moveBudget);
+            play(agent, game, stats);
+            stats.degradedMoves += agent.getDegradedMoves();
+        }
+        return stats;
+    }
+
+    // Game loop of Controller.startPlay() without the buttons.
+    public static void play(Agent agent, GameModel game, Stats stats) {
+        while (!game.isOver()) {
+            // The agent expects all found bombs to be flagged before its next move.
+            while (agent.markBomb() != null) ;
+
+            long start = System.nanoTime();
+            Location pos = agent.nextMove();
+            agent.sendBackResult(pos, game.reveal(pos.getX(), pos.getY()));
+            stats.recordMove(System.nanoTime() - start);
+        }
+        stats.recordGame(game.getState() == Game.GameState.WON);
+    }
+
+    // Counters of a batch run. Not thread safe, every worker keeps its own and they are merged at the end.
+    public static class Stats {
+        private long games;
+        private long wins;
+        private long moves;
+        private long moveNanos;
+        private long maxMoveNanos;
+        private long degradedMoves;
+        private long wallNanos;
+
+        public void recordMove(long nanos) {
+            this.moves++;
+            this.moveNanos += nanos;
+            if (nanos > this.maxMoveNanos) this.maxMoveNanos = nanos;
+        }
+
+        public void recordGame(boolean won) {
+            this.games++;
+            if (won) this.wins++;
+        }
+
+        public void merge(Stats other) {
+            this.games += other.games;
+            this.wins += other.wins;
+            this.moves += other.moves;
+            this.moveNanos += other.moveNanos;
+            this.maxMoveNanos = Math.max(this.maxMoveNanos, other.maxMoveNanos);
+            this.degradedMoves += other.degradedMoves;
+        }
+
+        public long getGames() {
+            return this.games;
+        }
+
+        public double getWinRate() {
+            return this.games == 0 ? 0.0 : 100.0 * this.wins / this.games;
+        }
+
+        public double getGamesPerSecond() {
+            return this.wallNanos == 0 ? 0.0 : this.games * 1e9 / this.wallNanos;
+        }
+
+        public double getMeanMoveMicros() {
+            return this.moves == 0 ? 0.0 : this.moveNanos / 1e3 / this.moves;
+        }
+
+        public double getMaxMoveMicros() {
+            return this.maxMoveNanos / 1e3;
+        }
+
+        public long getDegradedMoves() {
+            return this.degradedMoves;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "Games %d | Won %.2f%% | %.1f games/sec | Moves %d (%d degraded) | Move latency mean %.1f us, max %.1f us",
+                    this.games, getWinRate(), getGamesPerSecond(), this.moves, this.degradedMoves,
+                    getMeanMoveMicros(), getMaxMoveMicros()
+            );
+        }
+    }
+}
@@ -1,7 +1,9 @@
 module com.csp.final_project {
     requires javafx.controls;
     requires javafx.fxml;
-    requires org.chocosolver.solver;
+    requires transitive org.chocosolver.solver;
+    requires jdk.jfr;
     opens main to javafx.fxml;
     exports main;
+    exports ai_csp;
 }
\ No newline at end of file